@@ -0,0 +1,111 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Base of the benchmarks that run over a synthetic Zipfian corpus (see SyntheticCorpus). The
+ * corpus is written to a temp directory named after its parameters the first time a trial
+ * needs it, and reused by later trials and runs. An engine indexing the whole corpus is built
+ * once per trial.
+ *
+ * Corpus sizes are JMH parameters, so they can be set from the command line, for instance
+ * java -jar bench/target/benchmarks.jar -p docs=10000 -p words=300
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class CorpusBenchmark {
+
+	/**
+	 * Number of documents.
+	 */
+	@Param("1000")
+	public int docs;
+
+	/**
+	 * Average number of words per document.
+	 */
+	@Param("500")
+	public int words;
+
+	/**
+	 * Number of distinct words.
+	 */
+	@Param("50000")
+	public int vocab;
+
+	/**
+	 * Zipf exponent of word frequencies.
+	 */
+	@Param("1.0")
+	public double zipf;
+
+	/**
+	 * The corpus, written.
+	 */
+	SyntheticCorpus corpus;
+
+	/**
+	 * Paths of the documents, in docs file order.
+	 */
+	ArrayList<String> docFiles;
+
+	/**
+	 * Engine indexing the whole corpus.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Writes the corpus if it is not there yet, and indexes it.
+	 *
+	 * @throws IOException If the corpus cannot be written or read
+	 */
+	@Setup(Level.Trial)
+	public void writeCorpus()
+	throws IOException {
+		File dir = new File(System.getProperty("java.io.tmpdir"),
+				"lse-bench-" + docs + "-" + words + "-" + vocab + "-" + zipf);
+		corpus = new SyntheticCorpus(dir, vocab, zipf);
+		if (!corpus.docsFile.exists()) {
+			corpus.write(docs, words, 1);
+		}
+		docFiles = new ArrayList<String>();
+		Scanner sc = new Scanner(corpus.docsFile);
+		while (sc.hasNext()) {
+			docFiles.add(sc.next());
+		}
+		sc.close();
+		engine = new LittleSearchEngine();
+		engine.makeIndex(corpus.docsFile.getPath(), corpus.noiseWordsFile.getPath());
+	}
+
+	/**
+	 * Number of worker threads, for the benchmarks that use a pool.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+
+		/**
+		 * Number of threads, 0 for the number of processors.
+		 */
+		@Param("0")
+		public int threads;
+
+		/**
+		 * Returns the number of threads to use.
+		 *
+		 * @return Threads asked for, or the number of processors
+		 */
+		int threads() {
+			return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks building an index over the whole corpus: merging loaded documents one at a time
+ * with mergeKeyWords, and makeIndex on one thread, on a pool, and spilling to run files under
+ * a memory budget. Each invocation builds a new index, so times are per corpus.
+ *
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexBenchmark extends CorpusBenchmark {
+
+	/**
+	 * Keywords of every document, loaded once.
+	 */
+	ArrayList<HashMap<String,Occurrence>> loaded;
+
+	/**
+	 * Loads the keywords of every document.
+	 *
+	 * @throws FileNotFoundException If a document is missing
+	 */
+	@Setup(Level.Trial)
+	public void load()
+	throws FileNotFoundException {
+		loaded = new ArrayList<HashMap<String,Occurrence>>(docFiles.size());
+		for (String doc : docFiles) {
+			loaded.add(engine.loadKeyWords(doc));
+		}
+	}
+
+	@Benchmark
+	public Object mergeKeyWords() {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		for (HashMap<String,Occurrence> kws : loaded) {
+			fresh.mergeKeyWords(kws);
+		}
+		return fresh;
+	}
+
+	@Benchmark
+	public Object makeIndex()
+	throws FileNotFoundException {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		fresh.makeIndex(corpus.docsFile.getPath(), corpus.noiseWordsFile.getPath());
+		return fresh;
+	}
+
+	@Benchmark
+	public Object makeIndexPool(Pool pool)
+	throws FileNotFoundException {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		fresh.makeIndex(corpus.docsFile.getPath(), corpus.noiseWordsFile.getPath(), pool.threads());
+		return fresh;
+	}
+
+	@Benchmark
+	public Object makeIndexSpilling(Spill spill)
+	throws IOException {
+		LittleSearchEngine fresh = new LittleSearchEngine();
+		fresh.makeIndex(DocumentSource.fileList(corpus.docsFile.getPath()), corpus.noiseWordsFile.getPath(),
+				new File(corpus.dir, "spill.idx").getPath(), spill.budget, 1);
+		return fresh;
+	}
+
+	/**
+	 * Memory budget of the spilling build.
+	 */
+	@State(Scope.Benchmark)
+	public static class Spill {
+
+		/**
+		 * Bytes of occurrences held in memory before they are spilled to a run.
+		 */
+		@Param("4194304")
+		public long budget;
+	}
+}
@@ -0,0 +1,132 @@
+package search;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the keyword test and the loading of documents: getKeyWord over a sample of
+ * decorated words, loadKeyWords and countKeyWords one document at a time, and the whole corpus
+ * counted as a single document, on one thread or split over several. The scalar variants run
+ * in a JVM of their own with search.scalar set, to compare with the SWAR paths (see AsciiScan).
+ *
+ */
+public class KeyWordBenchmark extends CorpusBenchmark {
+
+	/**
+	 * Number of words in the sample for getKeyWord.
+	 */
+	static final int SAMPLE = 100000;
+
+	/**
+	 * Decorated words drawn from the corpus vocabulary.
+	 */
+	String[] tokens;
+
+	/**
+	 * The whole corpus as one document.
+	 */
+	File whole;
+
+	/**
+	 * Engine counting the whole corpus, with the corpus noise words.
+	 */
+	LittleSearchEngine splitter;
+
+	/**
+	 * Next document to load.
+	 */
+	private int next;
+
+	/**
+	 * Draws the word sample, and writes the whole corpus as one document.
+	 *
+	 * @throws IOException If the document cannot be written
+	 */
+	@Setup(Level.Trial)
+	public void sample()
+	throws IOException {
+		Random r = new Random(7);
+		tokens = new String[SAMPLE];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = SyntheticCorpus.decorate(corpus.vocabulary[corpus.sample(r)], r);
+		}
+		whole = new File(corpus.dir, "whole.txt");
+		if (!whole.exists()) {
+			OutputStream out = new FileOutputStream(whole);
+			try {
+				for (String doc : docFiles) {
+					Files.copy(new File(doc).toPath(), out);
+					out.write('\n');
+				}
+			} finally {
+				out.close();
+			}
+		}
+		splitter = new LittleSearchEngine();
+		splitter.loadNoiseWords(corpus.noiseWordsFile.getPath());
+	}
+
+	/**
+	 * Returns the next document to load, going round the corpus.
+	 */
+	private String nextDocument() {
+		String doc = docFiles.get(next);
+		next = (next + 1) % docFiles.size();
+		return doc;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLE)
+	public void getKeyWord(Blackhole bh) {
+		for (String t : tokens) {
+			bh.consume(engine.getKeyWord(t));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLE)
+	@Fork(value = 1, jvmArgsAppend = "-Dsearch.scalar=true")
+	public void getKeyWordScalar(Blackhole bh) {
+		getKeyWord(bh);
+	}
+
+	@Benchmark
+	public Object loadKeyWords()
+	throws FileNotFoundException {
+		return engine.loadKeyWords(nextDocument());
+	}
+
+	@Benchmark
+	public Object countKeyWords()
+	throws IOException {
+		return engine.countKeyWords(nextDocument());
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dsearch.scalar=true")
+	public Object countKeyWordsScalar()
+	throws IOException {
+		return countKeyWords();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object countWholeCorpus()
+	throws IOException {
+		splitter.setDocumentSplit(1, 1);
+		return splitter.countKeyWords(whole.getPath());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object countWholeCorpusSplit(Pool pool)
+	throws IOException {
+		splitter.setDocumentSplit(1, pool.threads());
+		return splitter.countKeyWords(whole.getPath());
+	}
+}
@@ -0,0 +1,91 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the ways of keeping a posting list in descending order of frequency: inserting
+ * each occurrence at its spot (MergeMode.INSERT, and insertLastOccurrence on an array list
+ * of Occurrence objects), and appending everything then sorting once (MergeMode.BULK). Each
+ * invocation builds one list of the given size, with long tailed frequencies.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PostingOrderBenchmark {
+
+	/**
+	 * Number of occurrences in the list.
+	 */
+	@Param({"1000", "10000", "100000"})
+	public int size;
+
+	/**
+	 * Frequency of each occurrence, in the order they are added.
+	 */
+	int[] freqs;
+
+	/**
+	 * Engine whose insertLastOccurrence is timed.
+	 */
+	LittleSearchEngine engine;
+
+	/**
+	 * Draws the frequencies, and checks that both PostingList orders agree.
+	 */
+	@Setup(Level.Trial)
+	public void frequencies() {
+		freqs = frequencies(size, 42);
+		engine = new LittleSearchEngine();
+		if (!insert().toString().equals(bulk().toString())) {
+			throw new IllegalStateException("insert and bulk orders differ for size " + size);
+		}
+	}
+
+	@Benchmark
+	public Object insert() {
+		PostingList occs = new PostingList();
+		for (int i = 0; i < freqs.length; i++) {
+			occs.insert(i, freqs[i]);
+		}
+		return occs;
+	}
+
+	@Benchmark
+	public Object bulk() {
+		PostingList occs = new PostingList();
+		for (int i = 0; i < freqs.length; i++) {
+			occs.add(i, freqs[i]);
+		}
+		occs.sort();
+		return occs;
+	}
+
+	@Benchmark
+	public Object insertLastOccurrence() {
+		ArrayList<Occurrence> occs = new ArrayList<Occurrence>(freqs.length);
+		for (int i = 0; i < freqs.length; i++) {
+			occs.add(new Occurrence("doc", freqs[i]));
+			engine.insertLastOccurrence(occs);
+		}
+		return occs;
+	}
+
+	/**
+	 * Returns n frequencies with a long tail: most are small, a few are large.
+	 */
+	static int[] frequencies(int n, long seed) {
+		Random r = new Random(seed);
+		int[] f = new int[n];
+		for (int i = 0; i < n; i++) {
+			f[i] = 1 + (int)(Math.pow(1 - r.nextDouble(), -1.5));
+		}
+		return f;
+	}
+}
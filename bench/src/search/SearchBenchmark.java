@@ -0,0 +1,178 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the searches over an index of the whole corpus: top5search, topK by frequency
+ * and by BM25, topKByTotal against an exhaustive scan ranking the same way, and topKBatch on
+ * one thread and on a pool. Each invocation runs
+ * the same set of five keyword queries, drawn from the vocabulary past the noise words, so
+ * times are per query. The skewed benchmark repeats queries with Zipfian popularity, in front
+ * of each kind of query cache.
+ *
+ */
+public class SearchBenchmark extends CorpusBenchmark {
+
+	/**
+	 * Number of queries run by each invocation.
+	 */
+	static final int QUERIES = 10000;
+
+	/**
+	 * Number of results asked for.
+	 */
+	static final int K = 50;
+
+	/**
+	 * Ranks documents by the total frequency of the keywords, as topKByTotal does, but through
+	 * ScoringModel, which reads every occurrence.
+	 */
+	static final ScoringModel TOTAL = new ScoringModel() {
+		public float weight(int docFreq, int docCount) {
+			return 1;
+		}
+
+		public float lengthFactor(int length, double averageLength) {
+			return 1;
+		}
+
+		public float score(int freq, float weight, float lengthFactor) {
+			return freq;
+		}
+	};
+
+	/**
+	 * Queries of five keywords.
+	 */
+	String[][] queries;
+
+	/**
+	 * Same queries, as lists for topK.
+	 */
+	ArrayList<List<String>> lists;
+
+	/**
+	 * Queries repeated with Zipfian popularity.
+	 */
+	ArrayList<List<String>> skewed;
+
+	/**
+	 * Draws the queries, and checks that topKByTotal ranks them as the exhaustive scan does.
+	 */
+	@Setup(Level.Trial)
+	public void queries() {
+		Random r = new Random(7);
+		queries = new String[QUERIES][];
+		lists = new ArrayList<List<String>>(QUERIES);
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = new String[5];
+			for (int t = 0; t < queries[i].length; t++) {
+				queries[i][t] = corpus.vocabulary[Math.min(vocab-1, SyntheticCorpus.NOISE + corpus.sample(r))];
+			}
+			lists.add(Arrays.asList(queries[i]));
+		}
+		skewed = new ArrayList<List<String>>(QUERIES);
+		for (int i = 0; i < QUERIES; i++) {
+			skewed.add(lists.get(corpus.sample(r) % QUERIES));
+		}
+		for (List<String> q : lists) {
+			if (!engine.topKByTotal(q, K).equals(engine.topK(q, K, TOTAL))) {
+				throw new IllegalStateException("topKByTotal and the exhaustive scan differ on " + q);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void top5search(Blackhole bh) {
+		for (String[] q : queries) {
+			bh.consume(engine.top5search(q[0], q[1]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void topK(Blackhole bh) {
+		for (List<String> q : lists) {
+			bh.consume(engine.topK(q, K));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void topKBM25(Blackhole bh) {
+		for (List<String> q : lists) {
+			bh.consume(engine.topK(q, K, ScoringModel.BM25));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void topKByTotal(Blackhole bh) {
+		for (List<String> q : lists) {
+			bh.consume(engine.topKByTotal(q, K));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void topKByTotalExhaustive(Blackhole bh) {
+		for (List<String> q : lists) {
+			bh.consume(engine.topK(q, K, TOTAL));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public Object topKBatch() {
+		return engine.topKBatch(lists, K, 1);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public Object topKBatchPool(Pool pool) {
+		return engine.topKBatch(lists, K, pool.threads());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(QUERIES)
+	public void topKSkewed(Cache cache, Blackhole bh) {
+		engine.setQueryCache(cache.create());
+		for (List<String> q : skewed) {
+			bh.consume(engine.topK(q, K));
+		}
+		engine.setQueryCache(null);
+	}
+
+	/**
+	 * Query cache in front of the skewed queries.
+	 */
+	@State(Scope.Benchmark)
+	public static class Cache {
+
+		/**
+		 * Cache policy, NONE for no cache.
+		 */
+		@Param({"NONE", "LRU", "TINY_LFU"})
+		public String policy;
+
+		/**
+		 * Number of results the cache holds.
+		 */
+		@Param("1000")
+		public int capacity;
+
+		/**
+		 * Returns a new empty cache, or null for no cache.
+		 *
+		 * @return Cache to set on the engine
+		 */
+		QueryCache create() {
+			return "NONE".equals(policy) ? null : new QueryCache(capacity, QueryCache.Policy.valueOf(policy));
+		}
+	}
+}
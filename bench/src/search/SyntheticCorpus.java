@@ -0,0 +1,143 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes a synthetic corpus for benchmarks: a set of text documents whose words are drawn
+ * from a Zipfian distribution over a generated vocabulary, a docs file listing them, and a
+ * noise words file. The most frequent words of the vocabulary are the noise words, as in
+ * real text, and a share of the words are capitalized, carry trailing punctuation, or
+ * contain digits, so every branch of the keyword test is exercised.
+ *
+ */
+public class SyntheticCorpus {
+
+	/**
+	 * Number of noise words, taken from the top of the vocabulary.
+	 */
+	static final int NOISE = 50;
+
+	/**
+	 * Directory holding the corpus.
+	 */
+	final File dir;
+
+	/**
+	 * Docs file, listing one document path per line.
+	 */
+	final File docsFile;
+
+	/**
+	 * Noise words file, one word per line.
+	 */
+	final File noiseWordsFile;
+
+	/**
+	 * The vocabulary, most frequent word first.
+	 */
+	final String[] vocabulary;
+
+	/**
+	 * Cumulative probability of each word of the vocabulary.
+	 */
+	private final double[] cdf;
+
+	/**
+	 * Sets up a corpus in a directory, without writing it.
+	 *
+	 * @param dir Directory to write the corpus into
+	 * @param vocabularySize Number of distinct words
+	 * @param exponent Zipf exponent, about 1 for natural language
+	 */
+	SyntheticCorpus(File dir, int vocabularySize, double exponent) {
+		this.dir = dir;
+		docsFile = new File(dir, "docs.txt");
+		noiseWordsFile = new File(dir, "noisewords.txt");
+		vocabulary = new String[vocabularySize];
+		for (int i = 0; i < vocabularySize; i++) {
+			vocabulary[i] = word(i);
+		}
+		cdf = new double[vocabularySize];
+		double sum = 0;
+		for (int i = 0; i < vocabularySize; i++) {
+			sum += 1 / Math.pow(i+1, exponent);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < vocabularySize; i++) {
+			cdf[i] /= sum;
+		}
+	}
+
+	/**
+	 * Writes the documents, docs file and noise words file.
+	 *
+	 * @param documents Number of documents
+	 * @param wordsPerDocument Average number of words in a document
+	 * @param seed Seed of the random numbers, so the same corpus can be written again
+	 * @throws IOException If a file cannot be written
+	 */
+	void write(int documents, int wordsPerDocument, long seed)
+	throws IOException {
+		dir.mkdirs();
+		Random r = new Random(seed);
+		PrintWriter noise = new PrintWriter(new FileWriter(noiseWordsFile));
+		for (int i = 0; i < NOISE && i < vocabulary.length; i++) {
+			noise.println(vocabulary[i]);
+		}
+		noise.close();
+		PrintWriter docs = new PrintWriter(new FileWriter(docsFile));
+		for (int d = 0; d < documents; d++) {
+			File doc = new File(dir, "doc" + d + ".txt");
+			docs.println(doc.getPath());
+			Writer out = new BufferedWriter(new FileWriter(doc), 1 << 16);
+			int words = 1 + (int)(wordsPerDocument * -Math.log(1 - r.nextDouble()));
+			for (int w = 0; w < words; w++) {
+				out.write(decorate(vocabulary[sample(r)], r));
+				out.write(w % 12 == 11 ? '\n' : ' ');
+			}
+			out.close();
+		}
+		docs.close();
+	}
+
+	/**
+	 * Draws a word number from the Zipfian distribution.
+	 *
+	 * @param r Source of random numbers
+	 * @return Index into the vocabulary
+	 */
+	int sample(Random r) {
+		int i = Arrays.binarySearch(cdf, r.nextDouble());
+		return i >= 0 ? i : Math.min(-i-1, cdf.length-1);
+	}
+
+	/**
+	 * Returns the i-th word of the vocabulary: letters spelling i in base 26, padded to at least 3.
+	 */
+	static String word(int i) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char)('a' + i % 26));
+			i /= 26;
+		} while (i > 0 || sb.length() < 3);
+		return sb.toString();
+	}
+
+	/**
+	 * Capitalizes a word or adds punctuation or digits to it, some of the time.
+	 */
+	static String decorate(String word, Random r) {
+		int x = r.nextInt(100);
+		if (x < 8) {
+			return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		} else if (x < 16) {
+			return word + ".,?:;!".charAt(r.nextInt(6));
+		} else if (x < 18) {
+			return word + r.nextInt(10);
+		} else if (x < 19) {
+			return "(" + word + ")";
+		}
+		return word;
+	}
+}
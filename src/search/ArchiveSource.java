@@ -0,0 +1,354 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * This class reads the documents in an archive file: the entries of a zip or tar file (tar
+ * files may be gzip compressed), or the single document in a gzip file. The archive is read
+ * as one stream, decompressing on the fly, and each entry is read into memory as it comes;
+ * nothing is written to disk. Since entries are in memory, they can be indexed on any thread
+ * while the stream moves on to the next entry.
+ *
+ * An entry is named "archive!path", the archive file name and the path of the entry in it.
+ * A gzip file holding a single document is named as the file is. Directories, links and
+ * other special tar entries are skipped.
+ *
+ */
+class ArchiveSource extends DocumentSource {
+
+	/**
+	 * Size of a tar block, header or data.
+	 */
+	static final int BLOCK = 512;
+
+	/**
+	 * Separates the archive name from the entry path in document names.
+	 */
+	static final char SEPARATOR = '!';
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Kinds of archive.
+	 */
+	private static final int ZIP = 0, TAR = 1, GZIP = 2;
+
+	/**
+	 * Name of the archive file.
+	 */
+	private final String archive;
+
+	/**
+	 * Kind of archive.
+	 */
+	private final int kind;
+
+	/**
+	 * Decompressed stream of the archive.
+	 */
+	private final InputStream in;
+
+	/**
+	 * True once the end of the archive has been reached.
+	 */
+	private boolean done;
+
+	/**
+	 * Opens an archive file.
+	 *
+	 * @param archiveFile Name of the archive file; the kind is told by its extension
+	 * @throws IOException If the file is not found on disk, or is not an archive
+	 */
+	ArchiveSource(String archiveFile)
+	throws IOException {
+		archive = archiveFile;
+		String lower = archiveFile.toLowerCase();
+		InputStream file = new BufferedInputStream(new FileInputStream(archiveFile), 1 << 16);
+		try {
+			if (lower.endsWith(".zip")) {
+				kind = ZIP;
+				in = new ZipInputStream(file);
+			} else if (lower.endsWith(".tar")) {
+				kind = TAR;
+				in = file;
+			} else if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+				kind = TAR;
+				in = new GZIPInputStream(file, 1 << 16);
+			} else if (lower.endsWith(".gz")) {
+				kind = GZIP;
+				in = new GZIPInputStream(file, 1 << 16);
+			} else {
+				throw new IOException(archiveFile + " is not a zip, tar or gzip file");
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Tells whether a file name is that of an archive this class reads.
+	 *
+	 * @param name File name
+	 * @return True if the name ends in .zip, .tar, .tgz or .gz
+	 */
+	static boolean isArchive(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".zip") || lower.endsWith(".tar") || lower.endsWith(".tgz") || lower.endsWith(".gz");
+	}
+
+	/**
+	 * Reads the next entry of the archive into memory.
+	 *
+	 * @return The next document, or null at the end of the archive
+	 * @throws IOException If the archive cannot be read, or is corrupt
+	 */
+	public Document next()
+	throws IOException {
+		if (done) {
+			return null;
+		}
+		if (kind == GZIP) {
+			done = true;
+			return Document.of(archive, readFully(in, -1));
+		}
+		if (kind == ZIP) {
+			ZipInputStream zip = (ZipInputStream)in;
+			for (ZipEntry e = zip.getNextEntry(); e != null; e = zip.getNextEntry()) {
+				if (!e.isDirectory()) {
+					return Document.of(archive + SEPARATOR + e.getName(), readFully(zip, e.getSize()));
+				}
+			}
+			done = true;
+			return null;
+		}
+		return nextTar();
+	}
+
+	/**
+	 * Reads tar headers up to the next regular file, and reads the file into memory. Long
+	 * names are taken from GNU long name entries and pax path records.
+	 *
+	 * @return The next document, or null at the end of the archive
+	 * @throws IOException If the archive cannot be read, or is corrupt
+	 */
+	private Document nextTar()
+	throws IOException {
+		byte[] header = new byte[BLOCK];
+		String longName = null;
+		while (readBlock(header)) {
+			String name = string(header, 0, 100);
+			long size = octal(header, 124, 12);
+			byte type = header[156];
+			if (longName == null && header[257] == 'u' && header[258] == 's' && header[259] == 't'
+					&& header[260] == 'a' && header[261] == 'r' && header[345] != 0) {
+				// ustar splits long names into a prefix and a name
+				name = string(header, 345, 155) + "/" + name;
+			}
+			if (type == 'L') {
+				longName = string(entryBytes(size), 0, (int)size);
+			} else if (type == 'x') {
+				String path = paxPath(entryBytes(size));
+				longName = path != null ? path : longName;
+			} else if (type == '0' || type == 0 || type == '7') {
+				ByteBuffer bytes = readFully(in, size);
+				skip(padding(size));
+				return Document.of(archive + SEPARATOR + (longName != null ? longName : name), bytes);
+			} else {
+				// directories, links, devices and global headers have nothing to index
+				skip(size + padding(size));
+				longName = null;
+			}
+		}
+		done = true;
+		return null;
+	}
+
+	/**
+	 * Reads the data of a tar entry whose contents are used by the reader, such as a long name.
+	 */
+	private byte[] entryBytes(long size)
+	throws IOException {
+		if (size < 0 || size > Integer.MAX_VALUE - 8) {
+			throw new IOException(archive + " has a corrupt tar header");
+		}
+		ByteBuffer bytes = readFully(in, size);
+		skip(padding(size));
+		return bytes.array();
+	}
+
+	/**
+	 * Reads a tar header block.
+	 *
+	 * @return True if a header was read, false at the end of the archive (an all zero block or end of stream)
+	 */
+	private boolean readBlock(byte[] block)
+	throws IOException {
+		int n = 0;
+		while (n < BLOCK) {
+			int r = in.read(block, n, BLOCK - n);
+			if (r < 0) {
+				if (n == 0) {
+					return false;
+				}
+				throw new EOFException(archive + " ends in the middle of a tar header");
+			}
+			n += r;
+		}
+		for (int i = 0; i < BLOCK; i++) {
+			if (block[i] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips bytes of the stream.
+	 */
+	private void skip(long n)
+	throws IOException {
+		while (n > 0) {
+			long s = in.skip(n);
+			if (s <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException(archive + " ends in the middle of an entry");
+				}
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+
+	/**
+	 * Returns the number of padding bytes after a tar entry of the given size.
+	 */
+	private static long padding(long size) {
+		return (BLOCK - size % BLOCK) % BLOCK;
+	}
+
+	/**
+	 * Reads a NUL terminated string field of a tar header.
+	 */
+	private static String string(byte[] b, int off, int len) {
+		int end = off;
+		while (end < off + len && b[end] != 0) {
+			end++;
+		}
+		return new String(b, off, end - off, UTF8);
+	}
+
+	/**
+	 * Reads an octal number field of a tar header. Large sizes in base-256 (GNU) are read too.
+	 */
+	private long octal(byte[] b, int off, int len)
+	throws IOException {
+		long v = 0;
+		if ((b[off] & 0x80) != 0) {
+			for (int i = off + 1; i < off + len; i++) {
+				v = (v << 8) | (b[i] & 0xff);
+			}
+			return v;
+		}
+		for (int i = off; i < off + len; i++) {
+			if (b[i] == 0 || b[i] == ' ') {
+				if (v > 0) {
+					break;
+				}
+				continue;
+			}
+			if (b[i] < '0' || b[i] > '7') {
+				throw new IOException(archive + " has a corrupt tar header");
+			}
+			v = v*8 + (b[i] - '0');
+		}
+		return v;
+	}
+
+	/**
+	 * Finds the path record in pax extended header data. Records are "length key=value\n",
+	 * where the length counts the whole record.
+	 *
+	 * @return The path, or null if there is none
+	 * @throws IOException If a record is malformed
+	 */
+	private String paxPath(byte[] data)
+	throws IOException {
+		int at = 0;
+		while (at < data.length) {
+			int space = at;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			int len = -1;
+			if (space > at && space - at < 10) {
+				try {
+					len = Integer.parseInt(new String(data, at, space - at, UTF8));
+				} catch (NumberFormatException e) {
+					len = -1;
+				}
+			}
+			// the record must hold its length, the space and the newline, and fit in the data
+			int end = at + len - 1;
+			if (len < 0 || end <= space || end >= data.length || data[end] != '\n') {
+				throw new IOException(archive + " has a corrupt pax header");
+			}
+			String record = new String(data, space + 1, end - space - 1, UTF8);
+			int eq = record.indexOf('=');
+			if (eq < 0) {
+				throw new IOException(archive + " has a corrupt pax header");
+			}
+			if (record.startsWith("path=")) {
+				return record.substring(5);
+			}
+			at += len;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads bytes from a stream into memory.
+	 *
+	 * @param in Stream to read
+	 * @param size Number of bytes to read, or -1 to read to the end of the stream
+	 * @return Buffer over the bytes read, backed by an array of exactly that length
+	 * @throws IOException If the stream cannot be read, or ends before size bytes
+	 */
+	private ByteBuffer readFully(InputStream in, long size)
+	throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException(archive + " has an entry too large to index");
+		}
+		byte[] b = new byte[size >= 0 ? (int)size : 1 << 13];
+		int n = 0;
+		while (true) {
+			if (n == b.length) {
+				if (size >= 0) {
+					break;
+				}
+				b = Arrays.copyOf(b, b.length*2);
+			}
+			int r = in.read(b, n, b.length - n);
+			if (r < 0) {
+				if (size >= 0) {
+					throw new EOFException(archive + " ends in the middle of an entry");
+				}
+				break;
+			}
+			n += r;
+		}
+		return ByteBuffer.wrap(n == b.length ? b : Arrays.copyOf(b, n));
+	}
+
+	/**
+	 * Closes the archive file.
+	 */
+	public void close()
+	throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,107 @@
+package search;
+
+/**
+ * This class tests and changes several ASCII characters at once, packed in a long (SWAR,
+ * SIMD within a register). Eight bytes of a document are read as one long, so the tokenizer
+ * can tell with a few arithmetic operations how many of them go on with the current token
+ * before one ends it or needs decoding; four chars of a word are packed in one long, so the
+ * keyword test can tell that all of them are letters, and lowercase them, at once. Each lane
+ * is kept below its high bit before adding to it, so no carry crosses into the next lane,
+ * and the high bit of each lane holds the result for that lane.
+ *
+ * Whenever a lane holds anything else than what the fast path handles, such as white space
+ * or a non-ASCII character, the caller goes back to its character by character path, so the
+ * results are always the same as without this class. Setting the system property
+ * search.scalar to true on the command line turns the fast paths off, to compare.
+ *
+ */
+final class AsciiScan {
+
+	/**
+	 * True to use the fast paths, false to test every character on its own. It is read once,
+	 * when the class is loaded, so the JIT can drop the path that is not taken; the benchmarks
+	 * compare the two in separate JVMs.
+	 */
+	static final boolean enabled = !Boolean.getBoolean("search.scalar");
+
+	/**
+	 * Each byte lane set to 1, and to its high bit.
+	 */
+	private static final long ONES8 = 0x0101010101010101L, HIGH8 = 0x8080808080808080L;
+
+	/**
+	 * Each 16-bit lane set to 1, and to its high bit.
+	 */
+	private static final long ONES16 = 0x0001000100010001L, HIGH16 = 0x8000800080008000L;
+
+	private AsciiScan() {
+	}
+
+	/**
+	 * Counts the bytes at the start of eight bytes that are ASCII characters that go in a
+	 * token: no white space, nor control character, nor byte of a multibyte character.
+	 *
+	 * @param bytes Eight bytes of a document, the first in the lowest lane
+	 * @return Number of bytes before the first one that is not from 0x21 to 0x7f, 8 if none
+	 */
+	static int tokenBytes(long bytes) {
+		// a byte below 0x21 borrows into its high bit, a byte from 0x80 has it set already;
+		// borrows only go up, so the lowest lane set is exact
+		long stops = ((bytes - 0x21*ONES8) | bytes) & HIGH8;
+		return Long.numberOfTrailingZeros(stops) >>> 3;
+	}
+
+	/**
+	 * Packs four chars of a word into a long, the first in the lowest lane.
+	 *
+	 * @param word Characters of the word
+	 * @param i Index of the first of the four chars
+	 * @return The chars in 16-bit lanes
+	 */
+	static long pack(char[] word, int i) {
+		return word[i] | (long)word[i+1] << 16 | (long)word[i+2] << 32 | (long)word[i+3] << 48;
+	}
+
+	/**
+	 * Stores four packed chars back into a word.
+	 *
+	 * @param chars Chars in 16-bit lanes, as from pack
+	 * @param word Characters of the word
+	 * @param i Index of the first of the four chars
+	 */
+	static void unpack(long chars, char[] word, int i) {
+		word[i] = (char)chars;
+		word[i+1] = (char)(chars >>> 16);
+		word[i+2] = (char)(chars >>> 32);
+		word[i+3] = (char)(chars >>> 48);
+	}
+
+	/**
+	 * Tells whether four packed chars are all ASCII letters, the ASCII characters for which
+	 * Character.isLetter is true.
+	 *
+	 * @param chars Chars in 16-bit lanes, as from pack
+	 * @return True if every char is from 'A' to 'Z' or from 'a' to 'z'; false if any is not,
+	 *         or is not ASCII
+	 */
+	static boolean letters(long chars) {
+		if ((chars & 0xff80*ONES16) != 0) {
+			return false;
+		}
+		// folded to lower case, a letter is from 'a' to 'z'
+		long lower = chars | 0x20*ONES16;
+		long fromA = lower + (0x8000 - 'a')*ONES16;
+		long pastZ = lower + (0x8000 - 'z' - 1)*ONES16;
+		return (fromA & ~pastZ & HIGH16) == HIGH16;
+	}
+
+	/**
+	 * Lowercases four packed ASCII letters, as Character.toLowerCase does.
+	 *
+	 * @param letters Letters in 16-bit lanes, for which letters is true
+	 * @return The letters in lower case
+	 */
+	static long lower(long letters) {
+		return letters | 0x20*ONES16;
+	}
+}
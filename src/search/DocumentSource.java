@@ -0,0 +1,183 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This class is a stream of documents to be indexed, for makeIndex to read from instead of
+ * a docs file. Each document is a name and its contents: a file on disk, bytes already in
+ * memory, or a Reader. makeIndex pulls documents one at a time, and pulls the next one only
+ * when there is room for it, so a source reading from a pipe or an archive never has more
+ * than a few documents in memory at once.
+ *
+ */
+public abstract class DocumentSource {
+
+	/**
+	 * One document of a source.
+	 */
+	public static final class Document {
+
+		/**
+		 * Name of the document, as returned by searches.
+		 */
+		final String name;
+
+		/**
+		 * Contents of the document, null if it is read from the file with its name.
+		 */
+		final ByteBuffer bytes;
+
+		/**
+		 * Reader over the contents of the document, null if the contents are bytes or a file.
+		 */
+		final Reader reader;
+
+		private Document(String name, ByteBuffer bytes, Reader reader) {
+			this.name = name;
+			this.bytes = bytes;
+			this.reader = reader;
+		}
+
+		/**
+		 * Returns the document held in the file with the given name.
+		 *
+		 * @param docFile Name of the document file
+		 * @return The document, read from the file when it is indexed
+		 */
+		public static Document file(String docFile) {
+			return new Document(docFile, null, null);
+		}
+
+		/**
+		 * Returns a document held in memory. The bytes are decoded in the platform default
+		 * charset, as for a document file.
+		 *
+		 * @param name Name of the document
+		 * @param bytes Contents of the document, from position to limit; not changed
+		 * @return The document
+		 */
+		public static Document of(String name, ByteBuffer bytes) {
+			return new Document(name, bytes, null);
+		}
+
+		/**
+		 * Returns a document read from a Reader. The document may be indexed on another thread
+		 * after the source has moved on, so the reader must not depend on the source's position,
+		 * as the entry stream of an archive does. It is closed once the document is read.
+		 *
+		 * @param name Name of the document
+		 * @param reader Reader over the contents of the document
+		 * @return The document
+		 */
+		public static Document of(String name, Reader reader) {
+			return new Document(name, null, reader);
+		}
+
+		/**
+		 * Returns the name of the document.
+		 *
+		 * @return Name of the document
+		 */
+		public String name() {
+			return name;
+		}
+	}
+
+	/**
+	 * Returns the next document.
+	 *
+	 * @return The next document, or null at the end of the source
+	 * @throws IOException If the next document cannot be read
+	 */
+	public abstract Document next()
+	throws IOException;
+
+	/**
+	 * Releases whatever the source reads from. Does nothing unless overridden.
+	 *
+	 * @throws IOException If the source cannot be closed
+	 */
+	public void close()
+	throws IOException {
+	}
+
+	/**
+	 * Returns the documents named in a docs file, one name per line, as makeIndex reads them.
+	 * A name that is a zip, tar or gzip file (see archive) stands for the documents in it.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names
+	 * @return Source of the document files, read when they are indexed
+	 * @throws FileNotFoundException If the docs file is not found on disk
+	 */
+	public static DocumentSource fileList(String docsFile)
+	throws FileNotFoundException {
+		final Scanner sc = new Scanner(new File(docsFile));
+		return new DocumentSource() {
+			
+			/**
+			 * Archive whose documents are being read, null if none.
+			 */
+			private ArchiveSource archive;
+			
+			public Document next()
+			throws IOException {
+				while (true) {
+					if (archive != null) {
+						Document doc = archive.next();
+						if (doc != null) {
+							return doc;
+						}
+						archive.close();
+						archive = null;
+					}
+					if (!sc.hasNext()) {
+						return null;
+					}
+					String name = sc.next();
+					if (!ArchiveSource.isArchive(name)) {
+						return Document.file(name);
+					}
+					archive = new ArchiveSource(name);
+				}
+			}
+
+			public void close()
+			throws IOException {
+				sc.close();
+				if (archive != null) {
+					archive.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the documents in an archive file, decompressed as they are read, without writing
+	 * anything to disk. The archive is read in order on the thread that calls next, each entry
+	 * into memory, so that entries can be indexed on any number of threads.
+	 *
+	 * @param archiveFile Name of a .zip, .tar, .tar.gz or .tgz file, or of a .gz file holding one document
+	 * @return Source of the documents in the archive, named "archive!path"
+	 * @throws IOException If the archive is not found on disk, or is not one of these kinds
+	 */
+	public static DocumentSource archive(String archiveFile)
+	throws IOException {
+		return new ArchiveSource(archiveFile);
+	}
+
+	/**
+	 * Returns the documents of an iterator, in order.
+	 *
+	 * @param docs Documents to index
+	 * @return Source of the documents
+	 */
+	public static DocumentSource of(final Iterator<Document> docs) {
+		return new DocumentSource() {
+			public Document next() {
+				return docs.hasNext() ? docs.next() : null;
+			}
+		};
+	}
+}
@@ -0,0 +1,106 @@
+package search;
+
+/**
+ * This class is what a generation of the index knows about its documents: their names,
+ * lengths and norms, how many there are, and their total length, as of when the generation
+ * was published. It is never changed, so a search reads the same statistics from start to
+ * end, whatever is merged meanwhile.
+ *
+ * Lengths and norms are kept in pages of PAGE documents. A DocumentTable hands out a new
+ * DocumentStats at each publish, sharing every page it has not written since the last one,
+ * so publishing costs a copy of the pages changed, not of the whole table.
+ *
+ */
+final class DocumentStats {
+
+	/**
+	 * Number of bits of a document ID giving its place in a page.
+	 */
+	static final int PAGE_BITS = 12;
+
+	/**
+	 * Number of documents in a page.
+	 */
+	static final int PAGE = 1 << PAGE_BITS;
+
+	/**
+	 * Document names, by ID; entries at size and past are not part of these statistics.
+	 */
+	private final String[] names;
+
+	/**
+	 * Pages of document lengths, -1 for a removed document.
+	 */
+	private final int[][] lengths;
+
+	/**
+	 * Pages of document norms (see DocumentTable.encodeLength).
+	 */
+	private final byte[][] norms;
+
+	/**
+	 * Number of IDs given out.
+	 */
+	final int size;
+
+	/**
+	 * Number of documents, leaving out those removed.
+	 */
+	final int count;
+
+	/**
+	 * Total length of the documents, leaving out those removed.
+	 */
+	final long totalLength;
+
+	/**
+	 * Creates statistics over the given arrays, which must not be changed afterwards.
+	 */
+	DocumentStats(String[] names, int[][] lengths, byte[][] norms, int size, int count, long totalLength) {
+		this.names = names;
+		this.lengths = lengths;
+		this.norms = norms;
+		this.size = size;
+		this.count = count;
+		this.totalLength = totalLength;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document ID, below size
+	 * @return Name of the document
+	 */
+	String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id Document ID, below size
+	 * @return Number of keyword occurrences in the document; 0 if not known, -1 if it was removed
+	 */
+	int length(int id) {
+		return lengths[id >>> PAGE_BITS][id & (PAGE-1)];
+	}
+
+	/**
+	 * Returns the norm of a document: its length rounded to one byte.
+	 *
+	 * @param id Document ID, below size
+	 * @return Norm, 0..255 as an unsigned byte
+	 */
+	int norm(int id) {
+		return norms[id >>> PAGE_BITS][id & (PAGE-1)] & 0xff;
+	}
+
+	/**
+	 * Returns the average length of the documents.
+	 *
+	 * @return Average number of keyword occurrences per document, 0 if there are none
+	 */
+	double averageLength() {
+		return count == 0 ? 0 : (double)totalLength / count;
+	}
+}
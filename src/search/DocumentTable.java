@@ -0,0 +1,281 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class numbers documents. Each document name is given a dense int ID, in the order
+ * the names are first seen, so that posting lists can refer to documents by number.
+ * Numbering is synchronized; names are read without locking, so searches can turn IDs
+ * into names while documents are being added.
+ *
+ * The table also remembers the keywords of each document, so that its occurrences can be
+ * found again when it is removed or updated, and the length of each document (its number of
+ * keyword occurrences), for scoring models that favor shorter documents. Besides the exact
+ * length, each document has a norm: its length rounded to one byte (see encodeLength), which
+ * scoring turns into a length factor through a table of 256 entries made once per search.
+ *
+ * Searches do not read lengths from the table, which the writer changes as it goes, but from
+ * the DocumentStats published with each generation (see stats). Lengths and norms are kept in
+ * pages shared with the last statistics handed out, and a page is copied before it is written.
+ *
+ */
+final class DocumentTable {
+
+	/**
+	 * Document names, by ID.
+	 */
+	private volatile String[] names;
+
+	/**
+	 * Number of documents.
+	 */
+	private volatile int size;
+
+	/**
+	 * Keywords of each document, by ID; null if not known.
+	 */
+	private String[][] terms;
+
+	/**
+	 * Pages of the length of each document, by ID; 0 if not known, -1 if removed.
+	 */
+	private int[][] lengths;
+
+	/**
+	 * Pages of the length of each document rounded to one byte, by ID.
+	 */
+	private byte[][] norms;
+
+	/**
+	 * For each page, true while the last statistics handed out share it.
+	 */
+	private boolean[] shared;
+
+	/**
+	 * True while the last statistics handed out share the arrays of pages.
+	 */
+	private boolean sharedPages;
+
+	/**
+	 * Last statistics handed out, null if they no longer match the table.
+	 */
+	private DocumentStats stats;
+
+	/**
+	 * Total length of the documents in the table.
+	 */
+	private long totalLength;
+
+	/**
+	 * IDs of the documents, by name.
+	 */
+	private final HashMap<String,Integer> ids;
+
+	/**
+	 * Creates an empty table.
+	 */
+	DocumentTable() {
+		names = new String[64];
+		terms = new String[64][];
+		lengths = new int[0][];
+		norms = new byte[0][];
+		shared = new boolean[0];
+		ids = new HashMap<String,Integer>(128);
+	}
+
+	/**
+	 * Creates a table holding the given names, with IDs 0..names.length-1. A document whose
+	 * length is -1 was removed: its ID is kept, but it is left out as remove leaves it out.
+	 *
+	 * @param names Document names, in ID order
+	 * @param lengths Document lengths, in ID order; -1 for a removed document
+	 */
+	DocumentTable(String[] names, int[] lengths) {
+		this.names = Arrays.copyOf(names, Math.max(64, names.length));
+		terms = new String[this.names.length][];
+		int pages = (names.length + DocumentStats.PAGE-1) >>> DocumentStats.PAGE_BITS;
+		this.lengths = new int[pages][DocumentStats.PAGE];
+		norms = new byte[pages][DocumentStats.PAGE];
+		shared = new boolean[pages];
+		size = names.length;
+		ids = new HashMap<String,Integer>(size*2);
+		for (int i = 0; i < size; i++) {
+			this.lengths[i >>> DocumentStats.PAGE_BITS][i & (DocumentStats.PAGE-1)] = lengths[i];
+			if (lengths[i] < 0) {
+				continue;
+			}
+			ids.put(names[i], i);
+			norms[i >>> DocumentStats.PAGE_BITS][i & (DocumentStats.PAGE-1)] = encodeLength(lengths[i]);
+			totalLength += lengths[i];
+		}
+	}
+
+	/**
+	 * Returns the ID of a document, giving it the next ID if it is new.
+	 *
+	 * @param name Document name
+	 * @return ID of the document
+	 */
+	synchronized int id(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		int n = size;
+		if (n == names.length) {
+			names = Arrays.copyOf(names, n*2);
+			terms = Arrays.copyOf(terms, n*2);
+		}
+		int p = n >>> DocumentStats.PAGE_BITS;
+		if (p == lengths.length) {
+			// new arrays of pages, the pages already there still shared
+			lengths = Arrays.copyOf(lengths, p+1);
+			norms = Arrays.copyOf(norms, p+1);
+			shared = Arrays.copyOf(shared, p+1);
+			lengths[p] = new int[DocumentStats.PAGE];
+			norms[p] = new byte[DocumentStats.PAGE];
+			sharedPages = false;
+		}
+		names[n] = name;
+		ids.put(name, n);
+		size = n + 1;
+		stats = null;
+		return n;
+	}
+
+	/**
+	 * Returns the ID of a document, if it has one.
+	 *
+	 * @param name Document name
+	 * @return ID of the document, or -1 if it has not been numbered
+	 */
+	synchronized int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Drops a document from the table. Its ID is not given out again, and its name can still
+	 * be read, for searches that are still using it.
+	 *
+	 * @param name Document name
+	 * @return Former ID of the document, or -1 if it was not in the table
+	 */
+	synchronized int remove(String name) {
+		Integer id = ids.remove(name);
+		if (id == null) {
+			return -1;
+		}
+		terms[id] = null;
+		setLength(id, -1);
+		return id;
+	}
+
+	/**
+	 * Records the keywords of a document.
+	 *
+	 * @param id Document ID
+	 * @param keywords Keywords occurring in the document
+	 */
+	synchronized void setTerms(int id, String[] keywords) {
+		terms[id] = keywords;
+	}
+
+	/**
+	 * Records the length of a document, replacing the one recorded before. The page it is
+	 * written to is copied first if the last statistics handed out share it.
+	 *
+	 * @param id Document ID
+	 * @param length Number of keyword occurrences in the document, -1 for a removed document
+	 */
+	synchronized void setLength(int id, int length) {
+		int p = id >>> DocumentStats.PAGE_BITS, i = id & (DocumentStats.PAGE-1);
+		if (sharedPages) {
+			lengths = lengths.clone();
+			norms = norms.clone();
+			sharedPages = false;
+		}
+		if (shared[p]) {
+			lengths[p] = lengths[p].clone();
+			norms[p] = norms[p].clone();
+			shared[p] = false;
+		}
+		totalLength += Math.max(0, length) - Math.max(0, lengths[p][i]);
+		lengths[p][i] = length;
+		norms[p][i] = encodeLength(Math.max(0, length));
+		stats = null;
+	}
+
+	/**
+	 * Returns the statistics of the documents as they are now, to be published with a
+	 * generation. They share the pages of the table, which are copied as they are next written.
+	 *
+	 * @return Statistics that do not change afterwards
+	 */
+	synchronized DocumentStats stats() {
+		if (stats == null) {
+			stats = new DocumentStats(names, lengths, norms, size, ids.size(), totalLength);
+			sharedPages = true;
+			Arrays.fill(shared, true);
+		}
+		return stats;
+	}
+
+	/**
+	 * Rounds a length to one byte. Lengths under 8 are kept exactly; larger ones keep their
+	 * three leading bits after the highest, so they are rounded down by less than an eighth.
+	 *
+	 * @param length Document length, 0 or more
+	 * @return Norm of the length, 0..255 as an unsigned byte
+	 */
+	static byte encodeLength(int length) {
+		if (length < 8) {
+			return (byte)length;
+		}
+		int e = 31 - Integer.numberOfLeadingZeros(length);
+		return (byte)(8 + (e-3)*8 + ((length >>> (e-3)) & 7));
+	}
+
+	/**
+	 * Returns the length a norm stands for.
+	 *
+	 * @param norm Norm, as an unsigned byte value 0..231 (larger values are not used)
+	 * @return Smallest length with that norm
+	 */
+	static int decodeLength(int norm) {
+		if (norm < 8) {
+			return norm;
+		}
+		int e = (norm - 8)/8 + 3;
+		return (8 + (norm - 8)%8) << (e-3);
+	}
+
+	/**
+	 * Returns the keywords of a document.
+	 *
+	 * @param id Document ID
+	 * @return Keywords recorded for the document, or null if they are not known
+	 */
+	synchronized String[] terms(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document ID
+	 * @return Name of the document
+	 */
+	String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the number of documents.
+	 *
+	 * @return Number of IDs given out
+	 */
+	int size() {
+		return size;
+	}
+}
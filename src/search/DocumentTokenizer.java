@@ -0,0 +1,370 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * This class splits a document into tokens separated by white space (the same tokens a
+ * StringTokenizer would return for each line of the document). A document file is read
+ * through a memory-mapped buffer, and each token is copied into a reusable character
+ * buffer, so no objects are created per token. Files larger than the mapping window
+ * are mapped one window at a time. A document can also be read from a buffer already
+ * in memory, or from a Reader, for documents that do not come from a file of their own.
+ *
+ * Bytes are decoded in the platform default charset, as FileReader does. Tokens that
+ * are pure ASCII are copied byte for byte, anything else is decoded through a String.
+ */
+class DocumentTokenizer {
+
+	/**
+	 * Number of bytes of the file mapped at a time.
+	 */
+	static final int WINDOW = 1 << 26;
+
+	/**
+	 * Characters of the current token, valid from 0 to length-1.
+	 */
+	char[] token;
+
+	/**
+	 * Number of characters in the current token.
+	 */
+	int length;
+
+	/**
+	 * Raw bytes of the current token.
+	 */
+	private byte[] bytes;
+
+	/**
+	 * Channel over the document file, null if the document is not read from a file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Size of the document in bytes.
+	 */
+	private final long size;
+
+	/**
+	 * Reader over the document, null if the document is read as bytes.
+	 */
+	private final Reader reader;
+
+	/**
+	 * Characters read ahead from the reader, valid from pos to end-1.
+	 */
+	private char[] chars;
+
+	/**
+	 * Position of the next character to scan in chars.
+	 */
+	private int pos;
+
+	/**
+	 * Number of characters read into chars.
+	 */
+	private int end;
+
+	/**
+	 * File position at which the current window starts.
+	 */
+	private long base;
+
+	/**
+	 * Currently mapped window of the file.
+	 */
+	private ByteBuffer window;
+
+	/**
+	 * Opens the given document file and maps its first window.
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	DocumentTokenizer(String docFile)
+	throws FileNotFoundException {
+		this(docFile, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens the given document file to scan only a range of its bytes, such as one returned
+	 * by split, and maps the range's first window.
+	 *
+	 * @param docFile Name of the document file to be scanned
+	 * @param from File position of the first byte to scan
+	 * @param to File position after the last byte to scan, past the end of file to scan to the end
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	DocumentTokenizer(String docFile, long from, long to)
+	throws FileNotFoundException {
+		channel = new RandomAccessFile(docFile, "r").getChannel();
+		reader = null;
+		token = new char[32];
+		bytes = new byte[32];
+		try {
+			size = Math.min(to, channel.size());
+			window = map(Math.min(from, size));
+		} catch (IOException e) {
+			close();
+			throw new FileNotFoundException(docFile + " could not be read: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Scans a document held in a buffer, from its position to its limit. The buffer is
+	 * read through a view, and its own position is not changed.
+	 *
+	 * @param doc Bytes of the document
+	 */
+	DocumentTokenizer(ByteBuffer doc) {
+		channel = null;
+		reader = null;
+		token = new char[32];
+		bytes = new byte[32];
+		window = doc.slice();
+		size = window.capacity();
+	}
+
+	/**
+	 * Scans a document read from a Reader. The characters are already decoded, so tokens
+	 * are copied as they are.
+	 *
+	 * @param doc Reader over the document
+	 */
+	DocumentTokenizer(Reader doc) {
+		channel = null;
+		reader = doc;
+		token = new char[32];
+		chars = new char[1 << 13];
+		size = -1;
+	}
+
+	/**
+	 * Returns the size of the document in bytes.
+	 *
+	 * @return Number of bytes scanned, -1 for a document read from a Reader
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Splits the bytes of a document file into ranges of about the same size that start on
+	 * white space, so that no token is cut in two, and each range can be scanned by a
+	 * tokenizer of its own. White space bytes are never part of a multibyte character in
+	 * UTF-8 or in other ASCII compatible charsets, so no character is cut in two either.
+	 *
+	 * @param parts Number of ranges wanted
+	 * @return File positions starting the ranges, then the end of file; fewer than parts
+	 *         ranges if a range would hold no white space
+	 * @throws IOException If the file cannot be read
+	 */
+	long[] split(int parts)
+	throws IOException {
+		long[] starts = new long[parts + 1];
+		int n = 1;
+		ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+		for (int p = 1; p < parts; p++) {
+			// move the even cut forward to the next white space byte
+			long pos = Math.max(size * p / parts, starts[n-1] + 1);
+			long cut = size;
+			while (pos < size && cut == size) {
+				buf.clear();
+				int read = channel.read(buf, pos);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					byte b = buf.get(i);
+					if (b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f') {
+						cut = pos + i;
+						break;
+					}
+				}
+				pos += read;
+			}
+			if (cut >= size) {
+				break;
+			}
+			starts[n++] = cut;
+		}
+		starts[n] = size;
+		return Arrays.copyOf(starts, n + 1);
+	}
+
+	/**
+	 * Advances to the next token in the document.
+	 *
+	 * @return True if there is a next token (in token[0..length-1]), false at end of document
+	 * @throws IOException If the file cannot be mapped, or the reader fails
+	 */
+	boolean next()
+	throws IOException {
+		if (reader != null) {
+			return nextChars();
+		}
+		int n = 0;
+		boolean ascii = true;
+		boolean fast = AsciiScan.enabled;
+		while (window.hasRemaining() || advance()) {
+			// up to eight bytes at a time, until one ends the token or needs decoding
+			int p = window.position();
+			if (fast && window.limit() - p >= 8) {
+				long eight = Long.reverseBytes(window.getLong(p));
+				int k = AsciiScan.tokenBytes(eight);
+				if (n + 8 > bytes.length) {
+					bytes = Arrays.copyOf(bytes, Math.max(n + 8, n*2));
+				}
+				for (int i = 0; i < k; i++, eight >>>= 8) {
+					bytes[n++] = (byte)eight;
+				}
+				if (k < 8) {
+					// the byte that stopped the run, if white space, is handled here too
+					int stop = (int)eight & 0xff;
+					if (stop == ' ' || stop == '\n' || stop == '\t' || stop == '\r' || stop == '\f') {
+						window.position(p + k + 1);
+						if (n > 0) {
+							break;
+						}
+						continue;
+					}
+				}
+				window.position(p + k);
+				if (k > 0) {
+					continue;
+				}
+			}
+			byte b = window.get();
+			if (b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f') {
+				if (n > 0) {
+					break;
+				}
+				continue;
+			}
+			if (n == bytes.length) {
+				bytes = Arrays.copyOf(bytes, n*2);
+			}
+			bytes[n++] = b;
+			if (b < 0) {
+				ascii = false;
+			}
+		}
+		if (n == 0) {
+			length = 0;
+			return false;
+		}
+		if (ascii) {
+			if (n > token.length) {
+				token = new char[Math.max(n, token.length*2)];
+			}
+			for (int i = 0; i < n; i++) {
+				token[i] = (char)bytes[i];
+			}
+			length = n;
+		} else {
+			String s = new String(bytes, 0, n, Charset.defaultCharset());
+			if (s.length() > token.length) {
+				token = new char[Math.max(s.length(), token.length*2)];
+			}
+			s.getChars(0, s.length(), token, 0);
+			length = s.length();
+		}
+		return true;
+	}
+
+	/**
+	 * Advances to the next token read from the reader.
+	 *
+	 * @return True if there is a next token, false at end of document
+	 * @throws IOException If the reader fails
+	 */
+	private boolean nextChars()
+	throws IOException {
+		int n = 0;
+		while (pos < end || fill()) {
+			char c = chars[pos++];
+			if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f') {
+				if (n > 0) {
+					break;
+				}
+				continue;
+			}
+			if (n == token.length) {
+				token = Arrays.copyOf(token, n*2);
+			}
+			token[n++] = c;
+		}
+		length = n;
+		return n > 0;
+	}
+
+	/**
+	 * Reads the next characters from the reader.
+	 *
+	 * @return True if characters were read, false at end of document
+	 * @throws IOException If the reader fails
+	 */
+	private boolean fill()
+	throws IOException {
+		int n = reader.read(chars, 0, chars.length);
+		while (n == 0) {
+			n = reader.read(chars, 0, chars.length);
+		}
+		pos = 0;
+		end = Math.max(n, 0);
+		return n > 0;
+	}
+
+	/**
+	 * Closes the document file or reader. The mapped windows are released when garbage collected.
+	 */
+	void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+			if (reader != null) {
+				reader.close();
+			}
+		} catch (IOException e) {
+
+		}
+	}
+
+	/**
+	 * Maps the window following the current one.
+	 *
+	 * @return True if a window was mapped, false if the end of file has been reached
+	 * @throws IOException If the file cannot be mapped
+	 */
+	private boolean advance()
+	throws IOException {
+		long next = base + window.capacity();
+		if (channel == null || next >= size) {
+			return false;
+		}
+		window = map(next);
+		return true;
+	}
+
+	/**
+	 * Maps a window of the file starting at the given position.
+	 *
+	 * @param pos File position of the start of the window
+	 * @return Mapped window, empty if pos is at end of file
+	 * @throws IOException If the file cannot be mapped
+	 */
+	private ByteBuffer map(long pos)
+	throws IOException {
+		base = pos;
+		long len = Math.min(WINDOW, size - pos);
+		if (len <= 0) {
+			return ByteBuffer.allocate(0);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+	}
+}
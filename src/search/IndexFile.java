@@ -0,0 +1,865 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * This class reads and writes a keywords index as a binary segment file. The file is
+ * opened by memory mapping it, and posting lists are looked up in the mapped term
+ * dictionary. They are kept compressed in the file, and a list read from the file is a
+ * view of the mapped bytes, so an index can be searched right after it is opened.
+ *
+ * The file also holds a forward index: the terms of each document, by dictionary number,
+ * so that the occurrences of a document can be found again without reading every list when
+ * the document is removed or updated.
+ *
+ * Layout of the file (all numbers big-endian):
+ * <pre>
+ *   header      int MAGIC, int VERSION
+ *   documents   int first document, int count, then count strings, then count int lengths
+ *               (-1 for a removed document)
+ *   noise words int count, then count strings
+ *   postings    for each term in dictionary order: int count, int byte length, then the
+ *               encoded occurrences (see PostingList)
+ *   forward     for each document from the first to the last numbered in the postings: int
+ *               count, then count int term numbers, ascending
+ *   offsets     for each of those documents: int position of its forward entry in its chunk
+ *   dictionary  for each term: long postings position, int key position, int key length
+ *   keys        UTF-8 bytes of all terms, in unsigned byte order
+ *   chunks      for each chunk of postings: long start, int first term
+ *   fchunks     for each chunk of forward entries: long start, int first document
+ *   footer      long offsets position, long dictionary position, long keys position,
+ *               long chunks position, long fchunks position, int term count,
+ *               int chunk count, int fchunk count, int MAGIC
+ * </pre>
+ * A whole index holds documents from 0; a segment of an index (see SegmentedIndex) holds a
+ * range of documents from its first, and its postings refer to them by their IDs in the
+ * whole index. A string is an int byte length followed by its UTF-8 bytes. Postings are split into
+ * chunks of at most CHUNK bytes, never splitting a list, and forward entries likewise, so
+ * that each chunk can be mapped on its own.
+ */
+class IndexFile {
+
+	/**
+	 * Marks the start and end of an index file.
+	 */
+	static final int MAGIC = 0x4C534549;
+
+	/**
+	 * Version of the file layout.
+	 */
+	static final int VERSION = 6;
+
+	/**
+	 * Maximum size in bytes of a mapped chunk of postings.
+	 */
+	static final long CHUNK = 1L << 30;
+
+	/**
+	 * Size of the footer in bytes.
+	 */
+	static final int FOOTER = 8+8+8+8+8+4+4+4+4;
+
+	/**
+	 * Size of a dictionary entry in bytes.
+	 */
+	static final int ENTRY = 8+4+4;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Number of the first document in the file, 0 unless the file is a segment.
+	 */
+	final int firstDocument;
+
+	/**
+	 * Names of the documents, by document number less firstDocument.
+	 */
+	final String[] documents;
+
+	/**
+	 * Lengths of the documents, by document number less firstDocument; -1 for a removed document.
+	 */
+	final int[] lengths;
+
+	/**
+	 * Noise words the index was built with.
+	 */
+	final String[] noiseWords;
+
+	/**
+	 * Number of terms in the dictionary.
+	 */
+	final int termCount;
+
+	/**
+	 * Mapped dictionary entries.
+	 */
+	private final ByteBuffer dictionary;
+
+	/**
+	 * Mapped term keys.
+	 */
+	private final ByteBuffer keys;
+
+	/**
+	 * Mapped chunks of postings.
+	 */
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * File position of the start of each chunk.
+	 */
+	private final long[] chunkStarts;
+
+	/**
+	 * Number of the first term in each chunk.
+	 */
+	private final int[] chunkTerms;
+
+	/**
+	 * Mapped positions of the forward entries in their chunks, by document.
+	 */
+	private final ByteBuffer offsets;
+
+	/**
+	 * Mapped chunks of forward entries.
+	 */
+	private final ByteBuffer[] forward;
+
+	/**
+	 * Number of the first document in each chunk of forward entries.
+	 */
+	private final int[] forwardDocs;
+
+	/**
+	 * Maps the given index file.
+	 *
+	 * @param indexFile Name of the index file
+	 * @throws IOException If the file cannot be read, or is not an index file
+	 */
+	private IndexFile(String indexFile)
+	throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			if (size < 8 + FOOTER) {
+				throw new IOException(indexFile + " is not an index file");
+			}
+			ByteBuffer footer = ch.map(FileChannel.MapMode.READ_ONLY, size - FOOTER, FOOTER);
+			long offsetsPos = footer.getLong();
+			long dictPos = footer.getLong();
+			long keysPos = footer.getLong();
+			long chunksPos = footer.getLong();
+			long forwardPos = footer.getLong();
+			termCount = footer.getInt();
+			int chunkCount = footer.getInt();
+			int forwardCount = footer.getInt();
+			if (footer.getInt() != MAGIC) {
+				throw new IOException(indexFile + " is not an index file");
+			}
+			// documents and noise words are read from a stream
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD())));
+			ch.position(0);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(indexFile + " is not a version " + VERSION + " index file");
+			}
+			firstDocument = in.readInt();
+			documents = readStrings(in);
+			lengths = new int[documents.length];
+			for (int d = 0; d < lengths.length; d++) {
+				lengths[d] = in.readInt();
+			}
+			noiseWords = readStrings(in);
+			// dictionary, keys, offsets and chunks are mapped
+			dictionary = ch.map(FileChannel.MapMode.READ_ONLY, dictPos, keysPos - dictPos);
+			keys = ch.map(FileChannel.MapMode.READ_ONLY, keysPos, chunksPos - keysPos);
+			offsets = ch.map(FileChannel.MapMode.READ_ONLY, offsetsPos, dictPos - offsetsPos);
+			ByteBuffer table = ch.map(FileChannel.MapMode.READ_ONLY, chunksPos, forwardPos - chunksPos);
+			chunks = new ByteBuffer[chunkCount];
+			chunkStarts = new long[chunkCount];
+			chunkTerms = new int[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				chunkStarts[i] = table.getLong();
+				chunkTerms[i] = table.getInt();
+			}
+			table = ch.map(FileChannel.MapMode.READ_ONLY, forwardPos, size - FOOTER - forwardPos);
+			forward = new ByteBuffer[forwardCount];
+			long[] forwardStarts = new long[forwardCount];
+			forwardDocs = new int[forwardCount];
+			for (int i = 0; i < forwardCount; i++) {
+				forwardStarts[i] = table.getLong();
+				forwardDocs[i] = table.getInt();
+			}
+			// postings end where the forward entries start
+			long postingsEnd = forwardCount > 0 ? forwardStarts[0] : offsetsPos;
+			for (int i = 0; i < chunkCount; i++) {
+				long end = i+1 < chunkCount ? chunkStarts[i+1] : postingsEnd;
+				chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, chunkStarts[i], end - chunkStarts[i]);
+			}
+			for (int i = 0; i < forwardCount; i++) {
+				long end = i+1 < forwardCount ? forwardStarts[i+1] : offsetsPos;
+				forward[i] = ch.map(FileChannel.MapMode.READ_ONLY, forwardStarts[i], end - forwardStarts[i]);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Opens an index file written by write. The mappings stay valid after the file is closed.
+	 *
+	 * @param indexFile Name of the index file
+	 * @return The opened index
+	 * @throws IOException If the file cannot be read, or is not an index file
+	 */
+	static IndexFile open(String indexFile)
+	throws IOException {
+		return new IndexFile(indexFile);
+	}
+
+	/**
+	 * Looks up a keyword in the dictionary.
+	 *
+	 * @param keyword Keyword to look up
+	 * @return Compressed occurrences of the keyword, reading straight from the mapped file,
+	 *         or null if not in the index
+	 */
+	PostingList postings(String keyword) {
+		int t = find(keyword.getBytes(UTF8));
+		return t < 0 ? null : postings(t);
+	}
+
+	/**
+	 * Returns the postings of the term with the given dictionary number.
+	 *
+	 * @param t Number of the term in the dictionary, 0..termCount-1
+	 * @return Compressed occurrences of the term, reading straight from the mapped file
+	 */
+	PostingList postings(int t) {
+		long pos = dictionary.getLong(t*ENTRY);
+		int c = chunkTerms.length - 1;
+		while (chunkTerms[c] > t) {
+			c--;
+		}
+		ByteBuffer chunk = chunks[c];
+		int p = (int)(pos - chunkStarts[c]);
+		int count = chunk.getInt(p);
+		int len = chunk.getInt(p+4);
+		ByteBuffer data = chunk.duplicate();
+		data.position(p+8);
+		data.limit(p+8+len);
+		return new PostingList(count, data.slice());
+	}
+
+	/**
+	 * Returns the keywords of a document, from the forward index.
+	 *
+	 * @param doc Document number
+	 * @return Keywords with an occurrence of the document, in dictionary order; empty if it has none
+	 */
+	String[] keywords(int doc) {
+		if (doc < firstDocument || doc - firstDocument >= offsets.capacity()/4) {
+			return new String[0];
+		}
+		int c = forwardDocs.length - 1;
+		while (forwardDocs[c] > doc) {
+			c--;
+		}
+		ByteBuffer chunk = forward[c];
+		int p = offsets.getInt((doc - firstDocument)*4);
+		String[] kws = new String[chunk.getInt(p)];
+		for (int i = 0; i < kws.length; i++) {
+			kws[i] = term(chunk.getInt(p + 4 + i*4));
+		}
+		return kws;
+	}
+
+	/**
+	 * Returns the keyword with the given dictionary number.
+	 *
+	 * @param t Number of the term in the dictionary, 0..termCount-1
+	 * @return The keyword
+	 */
+	String term(int t) {
+		return new String(key(t), UTF8);
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the keyword with the given dictionary number.
+	 *
+	 * @param t Number of the term in the dictionary, 0..termCount-1
+	 * @return New array of the key bytes
+	 */
+	byte[] key(int t) {
+		int at = dictionary.getInt(t*ENTRY + 8);
+		byte[] b = new byte[dictionary.getInt(t*ENTRY + 12)];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = keys.get(at+i);
+		}
+		return b;
+	}
+
+	/**
+	 * Binary searches the dictionary for a key.
+	 *
+	 * @param key UTF-8 bytes of the keyword
+	 * @return Number of the term in the dictionary, or -1 if not found
+	 */
+	private int find(byte[] key) {
+		int lo = 0, hi = termCount-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			int at = dictionary.getInt(mid*ENTRY + 8);
+			int len = dictionary.getInt(mid*ENTRY + 12);
+			int cmp = 0;
+			for (int i = 0; cmp == 0 && i < len && i < key.length; i++) {
+				cmp = (keys.get(at+i) & 0xff) - (key[i] & 0xff);
+			}
+			if (cmp == 0) {
+				cmp = len - key.length;
+			}
+			if (cmp == 0) {
+				return mid;
+			} else if (cmp < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes a keywords index to a file, replacing the file if it exists.
+	 *
+	 * @param indexFile Name of the index file
+	 * @param index Keywords index, from keyword to its list of occurrences
+	 * @param documents Statistics of the documents numbered in the posting lists
+	 * @param noiseWords Noise words the index was built with
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(String indexFile, Map<String,PostingList> index, DocumentStats documents, 
+			NoiseWordSet noiseWords)
+	throws IOException {
+		write(indexFile, index, documents, 0, documents.size, noiseWords);
+	}
+
+	/**
+	 * Writes a segment of a keywords index to a file, replacing the file if it exists.
+	 *
+	 * @param indexFile Name of the index file
+	 * @param index Keywords index, from keyword to its list of occurrences
+	 * @param documents Statistics of the documents numbered in the posting lists
+	 * @param first First document of the segment; the lists hold none below it
+	 * @param end End of the documents of the segment, at most documents.size
+	 * @param noiseWords Noise words the index was built with
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(String indexFile, Map<String,PostingList> index, DocumentStats documents, 
+			int first, int end, NoiseWordSet noiseWords)
+	throws IOException {
+		// sort the keys, leaving out keywords with no occurrences left
+		byte[][] keys = new byte[index.size()][];
+		int n = 0;
+		for (Map.Entry<String,PostingList> kw : index.entrySet()) {
+			if (kw.getValue().size() > 0) {
+				keys[n++] = kw.getKey().getBytes(UTF8);
+			}
+		}
+		keys = Arrays.copyOf(keys, n);
+		Arrays.sort(keys, KEY_ORDER);
+		Writer out = new Writer(indexFile, documents, first, end, noiseWords);
+		try {
+			for (byte[] key : keys) {
+				out.add(key, index.get(new String(key, UTF8)));
+			}
+			out.finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Orders UTF-8 keys as unsigned bytes, the order of the dictionary.
+	 */
+	static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			for (int i = 0; i < a.length && i < b.length; i++) {
+				if (a[i] != b[i]) {
+					return (a[i] & 0xff) - (b[i] & 0xff);
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	/**
+	 * Writes an index file one term at a time, in dictionary order, so that the posting lists
+	 * of an index never have to be in memory all at once. The documents and noise words are
+	 * written first; each term's postings are written as it is added, while its dictionary
+	 * entry and key go to two side files, which are copied to the end of the index file when
+	 * it is finished. Memory used does not grow with the number of terms.
+	 *
+	 * The forward index is built from the postings as they are added: each occurrence gives
+	 * a (document, term number) pair, and pairs are sorted in runs of FORWARD_RUN, spilled to
+	 * side files, and merged by document when the file is finished.
+	 */
+	static final class Writer {
+
+		/**
+		 * Maximum number of (document, term) pairs sorted in memory before they are spilled.
+		 */
+		static final int FORWARD_RUN = 1 << 20;
+
+		/**
+		 * Counts the bytes written to the index file.
+		 */
+		private final CountingOutputStream counter;
+
+		private final DataOutputStream out;
+
+		/**
+		 * Side files holding the dictionary entries and the keys until the file is finished.
+		 */
+		private final File dictFile, keysFile;
+
+		private final DataOutputStream dict, keys;
+
+		/**
+		 * Start and first term of each chunk of postings.
+		 */
+		private final ArrayList<long[]> chunks = new ArrayList<long[]>();
+
+		/**
+		 * Start and first document of each chunk of forward entries.
+		 */
+		private final ArrayList<long[]> forwardChunks = new ArrayList<long[]>();
+
+		/**
+		 * Last key added, to check the order.
+		 */
+		private byte[] last;
+
+		/**
+		 * Number of terms added, and bytes of keys written.
+		 */
+		private int terms, keysAt;
+
+		/**
+		 * Name of the index file, for the forward runs.
+		 */
+		private final String indexFile;
+
+		/**
+		 * First document of the file, and the end of those in the table it is written with.
+		 */
+		private final int first, end;
+
+		/**
+		 * Pairs of the run being filled: document in the high int, term number in the low.
+		 */
+		private long[] pairs = new long[1024];
+
+		private int pairCount;
+
+		/**
+		 * Highest document in the postings, -1 if none yet.
+		 */
+		private int maxDoc = -1;
+
+		/**
+		 * Sorted runs of pairs spilled to side files.
+		 */
+		private final ArrayList<File> runs = new ArrayList<File>();
+
+		/**
+		 * Creates an index file, and writes its documents and noise words.
+		 *
+		 * @param indexFile Name of the index file, replaced if it exists
+		 * @param documents Statistics of the documents numbered in the posting lists
+		 * @param noiseWords Noise words the index was built with
+		 * @throws IOException If the file cannot be written
+		 */
+		Writer(String indexFile, DocumentStats documents, NoiseWordSet noiseWords)
+		throws IOException {
+			this(indexFile, documents, 0, documents.size, noiseWords);
+		}
+
+		/**
+		 * Creates a file for a segment of an index, and writes its documents and noise words.
+		 *
+		 * @param indexFile Name of the index file, replaced if it exists
+		 * @param documents Statistics of the documents numbered in the posting lists
+		 * @param first First document of the segment; the lists added hold none below it
+		 * @param end End of the documents of the segment, at most documents.size
+		 * @param noiseWords Noise words the index was built with
+		 * @throws IOException If the file cannot be written
+		 */
+		Writer(String indexFile, DocumentStats documents, int first, int end, NoiseWordSet noiseWords)
+		throws IOException {
+			this.indexFile = indexFile;
+			this.first = first;
+			this.end = end;
+			dictFile = new File(indexFile + ".dict");
+			keysFile = new File(indexFile + ".keys");
+			counter = new CountingOutputStream(new FileOutputStream(indexFile));
+			out = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+			dict = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictFile), 1 << 16));
+			keys = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keysFile), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(first);
+			ArrayList<String> names = new ArrayList<String>(end - first);
+			for (int d = first; d < end; d++) {
+				names.add(documents.name(d));
+			}
+			writeStrings(out, names);
+			for (int d = first; d < end; d++) {
+				out.writeInt(documents.length(d));
+			}
+			writeStrings(out, noiseWords.words());
+		}
+
+		/**
+		 * Writes the postings of the next term. Terms with no occurrences are left out.
+		 *
+		 * @param key UTF-8 bytes of the keyword, after those of the last keyword added
+		 * @param occs Occurrences of the keyword
+		 * @throws IOException If the file cannot be written
+		 */
+		void add(byte[] key, PostingList occs)
+		throws IOException {
+			if (occs.size() == 0) {
+				return;
+			}
+			if (last != null && KEY_ORDER.compare(last, key) >= 0) {
+				throw new IllegalArgumentException("keywords added out of order");
+			}
+			last = key;
+			// postings, chunked at list boundaries
+			out.flush();
+			long pos = counter.count;
+			ByteBuffer data = occs.encoded();
+			long len = 8 + data.remaining();
+			if (chunks.isEmpty() || pos + len - chunks.get(chunks.size()-1)[0] > CHUNK) {
+				chunks.add(new long[] {pos, terms});
+			}
+			out.writeInt(occs.size());
+			out.writeInt(data.remaining());
+			byte[] b = new byte[data.remaining()];
+			data.get(b);
+			out.write(b);
+			dict.writeLong(pos);
+			dict.writeInt(keysAt);
+			dict.writeInt(key.length);
+			keys.write(key);
+			keysAt += key.length;
+			// forward pairs
+			PostingIterator it = occs.iterator();
+			while (it.next()) {
+				if (pairCount == pairs.length) {
+					if (pairCount == FORWARD_RUN) {
+						spill();
+					} else {
+						pairs = Arrays.copyOf(pairs, pairCount*2);
+					}
+				}
+				if (it.doc() < first) {
+					throw new IllegalArgumentException("document " + it.doc() + " is below the first of the file");
+				}
+				maxDoc = Math.max(maxDoc, it.doc());
+				pairs[pairCount++] = (long)it.doc() << 32 | terms;
+			}
+			terms++;
+		}
+
+		/**
+		 * Sorts the pairs in memory and writes them to a new run file.
+		 */
+		private void spill()
+		throws IOException {
+			Arrays.sort(pairs, 0, pairCount);
+			File run = new File(indexFile + ".fwd" + runs.size());
+			runs.add(run);
+			DataOutputStream r = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+			try {
+				for (int i = 0; i < pairCount; i++) {
+					r.writeLong(pairs[i]);
+				}
+			} finally {
+				r.close();
+			}
+			pairCount = 0;
+		}
+
+		/**
+		 * Writes the forward entries of every document, merging the runs of pairs, and then
+		 * the offset of each entry in its chunk.
+		 *
+		 * @return File position of the offsets
+		 */
+		private long writeForward()
+		throws IOException {
+			PriorityQueue<Run> queue = new PriorityQueue<Run>();
+			ArrayList<Run> open = new ArrayList<Run>();
+			try {
+				if (runs.isEmpty()) {
+					Arrays.sort(pairs, 0, pairCount);
+					open.add(new Run(pairs, pairCount));
+				} else {
+					if (pairCount > 0) {
+						spill();
+					}
+					for (File run : runs) {
+						open.add(new Run(run));
+					}
+				}
+				for (Run r : open) {
+					if (r.next()) {
+						queue.add(r);
+					}
+				}
+				int docs = Math.max(end, maxDoc + 1);
+				int[] offsets = new int[docs - first];
+				int[] entry = new int[64];
+				for (int d = first; d < docs; d++) {
+					int count = 0;
+					while (!queue.isEmpty() && (int)(queue.peek().pair >>> 32) == d) {
+						Run r = queue.poll();
+						if (count == entry.length) {
+							entry = Arrays.copyOf(entry, count*2);
+						}
+						entry[count++] = (int)r.pair;
+						if (r.next()) {
+							queue.add(r);
+						}
+					}
+					// entries chunked at document boundaries
+					out.flush();
+					long pos = counter.count;
+					long len = 4 + 4L*count;
+					if (forwardChunks.isEmpty() || pos + len - forwardChunks.get(forwardChunks.size()-1)[0] > CHUNK) {
+						forwardChunks.add(new long[] {pos, d});
+					}
+					offsets[d - first] = (int)(pos - forwardChunks.get(forwardChunks.size()-1)[0]);
+					out.writeInt(count);
+					for (int i = 0; i < count; i++) {
+						out.writeInt(entry[i]);
+					}
+				}
+				out.flush();
+				long offsetsPos = counter.count;
+				for (int offset : offsets) {
+					out.writeInt(offset);
+				}
+				return offsetsPos;
+			} finally {
+				for (Run r : open) {
+					r.close();
+				}
+			}
+		}
+
+		/**
+		 * Writes the forward index, offsets, dictionary, keys, chunks and footer after the postings.
+		 *
+		 * @throws IOException If the file cannot be written
+		 */
+		void finish()
+		throws IOException {
+			dict.close();
+			keys.close();
+			long offsetsPos = writeForward();
+			out.flush();
+			long dictPos = counter.count;
+			copy(dictFile);
+			out.flush();
+			long keysPos = counter.count;
+			copy(keysFile);
+			out.flush();
+			long chunksPos = counter.count;
+			for (long[] c : chunks) {
+				out.writeLong(c[0]);
+				out.writeInt((int)c[1]);
+			}
+			out.flush();
+			long forwardPos = counter.count;
+			for (long[] c : forwardChunks) {
+				out.writeLong(c[0]);
+				out.writeInt((int)c[1]);
+			}
+			out.writeLong(offsetsPos);
+			out.writeLong(dictPos);
+			out.writeLong(keysPos);
+			out.writeLong(chunksPos);
+			out.writeLong(forwardPos);
+			out.writeInt(terms);
+			out.writeInt(chunks.size());
+			out.writeInt(forwardChunks.size());
+			out.writeInt(MAGIC);
+			out.flush();
+		}
+
+		/**
+		 * Appends a side file to the index file.
+		 */
+		private void copy(File side)
+		throws IOException {
+			InputStream in = new FileInputStream(side);
+			try {
+				byte[] b = new byte[1 << 16];
+				for (int n = in.read(b); n > 0; n = in.read(b)) {
+					out.write(b, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Closes the index file and deletes the side and run files. An index file closed before it
+		 * is finished is not valid.
+		 *
+		 * @throws IOException If the file cannot be closed
+		 */
+		void close()
+		throws IOException {
+			try {
+				dict.close();
+				keys.close();
+				out.close();
+			} finally {
+				dictFile.delete();
+				keysFile.delete();
+				for (File run : runs) {
+					run.delete();
+				}
+			}
+		}
+
+		/**
+		 * Sorted run of pairs being merged, from memory or from a run file.
+		 */
+		private static final class Run implements Comparable<Run> {
+
+			private final long[] pairs;
+
+			private final int size;
+
+			private final DataInputStream in;
+
+			/**
+			 * Pairs left to read from the file, or index of the next pair in memory.
+			 */
+			private long at;
+
+			/**
+			 * Current pair.
+			 */
+			long pair;
+
+			Run(long[] pairs, int size) {
+				this.pairs = pairs;
+				this.size = size;
+				in = null;
+			}
+
+			Run(File run)
+			throws IOException {
+				pairs = null;
+				size = 0;
+				at = run.length() / 8;
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			}
+
+			/**
+			 * Moves to the next pair.
+			 *
+			 * @return False at the end of the run
+			 */
+			boolean next()
+			throws IOException {
+				if (in == null) {
+					if (at == size) {
+						return false;
+					}
+					pair = pairs[(int)at++];
+					return true;
+				}
+				if (at == 0) {
+					return false;
+				}
+				at--;
+				pair = in.readLong();
+				return true;
+			}
+
+			public int compareTo(Run o) {
+				return pair < o.pair ? -1 : pair > o.pair ? 1 : 0;
+			}
+
+			void close()
+			throws IOException {
+				if (in != null) {
+					in.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a count followed by the given strings.
+	 */
+	private static void writeStrings(DataOutputStream out, Collection<String> strings)
+	throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			byte[] b = s.getBytes(UTF8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Reads a count followed by that many strings.
+	 */
+	private static String[] readStrings(DataInputStream in)
+	throws IOException {
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			strings[i] = new String(b, UTF8);
+		}
+		return strings;
+	}
+
+	/**
+	 * Output stream that keeps count of the bytes written through it.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b)
+		throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len)
+		throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
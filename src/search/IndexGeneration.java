@@ -0,0 +1,149 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is one generation of the index: the occurrence lists of all keywords, the
+ * documents table they refer to and the statistics of its documents as of this generation,
+ * and the index file they may come from. A generation is never changed once it is
+ * published. Changes are made by building the next generation off to the side, and
+ * publishing it in place of this one, so a search that started on a generation reads the
+ * same lists and document statistics until it is done.
+ *
+ * Keywords are looked up first in a small overlay of lists changed since the last full
+ * copy, then in the base table, then in the index file. Building the next generation only
+ * copies the overlay; the base table is copied, with the overlay folded in, once the
+ * entries copied with the overlay since the last fold add up to the size of the base table.
+ * Folding then costs no more than copying the overlay did, and the overlay stays near the
+ * square root of twice the base size times the changes per generation. An empty list in the
+ * overlay or base table hides the keyword's list further down.
+ */
+final class IndexGeneration {
+
+	/**
+	 * Occurrence lists by keyword, as of the last fold.
+	 */
+	private final HashMap<String,PostingList> base;
+
+	/**
+	 * Occurrence lists changed since the last fold.
+	 */
+	private final HashMap<String,PostingList> overlay;
+
+	/**
+	 * Number of entries copied with the overlay since the last fold.
+	 */
+	private final long copied;
+
+	/**
+	 * Index file holding keywords in neither table, null if none.
+	 */
+	final IndexFile segment;
+
+	/**
+	 * Table of the documents numbered in the lists, changed by the writer as it goes.
+	 */
+	final DocumentTable documents;
+
+	/**
+	 * Statistics of the documents as of this generation, which searches read.
+	 */
+	final DocumentStats stats;
+
+	/**
+	 * Creates a generation over the given tables, with the statistics of the documents as they are now.
+	 */
+	private IndexGeneration(HashMap<String,PostingList> base, HashMap<String,PostingList> overlay,
+			long copied, IndexFile segment, DocumentTable documents) {
+		this.base = base;
+		this.overlay = overlay;
+		this.copied = copied;
+		this.segment = segment;
+		this.documents = documents;
+		stats = documents.stats();
+	}
+
+	/**
+	 * Creates a generation holding the given lists.
+	 *
+	 * @param lists Occurrence lists by keyword; the map and lists must not be changed afterwards
+	 * @param documents Table of the documents numbered in the lists
+	 */
+	IndexGeneration(HashMap<String,PostingList> lists, DocumentTable documents) {
+		this(lists, new HashMap<String,PostingList>(), 0, null, documents);
+	}
+
+	/**
+	 * Creates a generation reading everything from an index file.
+	 *
+	 * @param segment Opened index file
+	 */
+	IndexGeneration(IndexFile segment) {
+		this(new HashMap<String,PostingList>(), new HashMap<String,PostingList>(), 0, segment,
+				new DocumentTable(segment.documents, segment.lengths));
+	}
+
+	/**
+	 * Returns the occurrence list of a keyword.
+	 *
+	 * @param kw Keyword
+	 * @return Occurrences of the keyword, or null if it is not in the index or has none left
+	 */
+	PostingList postings(String kw) {
+		PostingList occs = overlay.get(kw);
+		if (occs == null) {
+			occs = base.get(kw);
+		}
+		if (occs == null && segment != null) {
+			occs = segment.postings(kw);
+		}
+		return occs == null || occs.size() == 0 ? null : occs;
+	}
+
+	/**
+	 * Returns all keywords with occurrences.
+	 *
+	 * @return New set of the keywords
+	 */
+	Set<String> keywords() {
+		HashSet<String> kws = new HashSet<String>(base.keySet());
+		kws.addAll(overlay.keySet());
+		if (segment != null) {
+			for (int t = 0; t < segment.termCount; t++) {
+				kws.add(segment.term(t));
+			}
+		}
+		Iterator<String> iter = kws.iterator();
+		while (iter.hasNext()) {
+			if (postings(iter.next()) == null) {
+				iter.remove();
+			}
+		}
+		return kws;
+	}
+
+	/**
+	 * Builds the next generation, with some lists replaced, and the documents table as it is now.
+	 *
+	 * @param changes New occurrence lists by keyword, empty for a keyword with none left; the
+	 *        map and lists must not be changed afterwards
+	 * @return The next generation
+	 */
+	IndexGeneration with(Map<String,PostingList> changes) {
+		HashMap<String,PostingList> next = new HashMap<String,PostingList>(overlay);
+		next.putAll(changes);
+		if (copied + next.size() < base.size()) {
+			return new IndexGeneration(base, next, copied + next.size(), segment, documents);
+		}
+		// fold the overlay into a copy of the base table
+		HashMap<String,PostingList> folded = new HashMap<String,PostingList>(base);
+		for (Map.Entry<String,PostingList> kw : next.entrySet()) {
+			if (kw.getValue().size() == 0 && segment == null) {
+				folded.remove(kw.getKey());
+			} else {
+				folded.put(kw.getKey(), kw.getValue());
+			}
+		}
+		return new IndexGeneration(folded, new HashMap<String,PostingList>(), 0, segment, documents);
+	}
+}
@@ -0,0 +1,88 @@
+package search;
+
+/**
+ * This class is a set of non-negative ints, held in an open addressing hash table of
+ * primitive ints, so adding and testing numbers does not box them.
+ *
+ */
+final class IntHashSet {
+
+	/**
+	 * Hash table of members plus one; 0 marks an empty slot.
+	 */
+	private int[] slots;
+
+	/**
+	 * Number of members.
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty set with room for the given number of members before it grows.
+	 *
+	 * @param expected Number of members expected
+	 */
+	IntHashSet(int expected) {
+		int cap = 8;
+		while (cap < expected*2) {
+			cap *= 2;
+		}
+		slots = new int[cap];
+	}
+
+	/**
+	 * Adds a number to the set.
+	 *
+	 * @param v Non-negative number
+	 * @return True if the number was added, false if it was already in the set
+	 */
+	boolean add(int v) {
+		int slot = find(slots, v);
+		if (slots[slot] != 0) {
+			return false;
+		}
+		slots[slot] = v + 1;
+		if (++size*2 > slots.length) {
+			int[] old = slots;
+			slots = new int[old.length*2];
+			for (int s : old) {
+				if (s != 0) {
+					slots[find(slots, s-1)] = s;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether a number is in the set.
+	 *
+	 * @param v Non-negative number
+	 * @return True if the number is in the set
+	 */
+	boolean contains(int v) {
+		return slots[find(slots, v)] != 0;
+	}
+
+	/**
+	 * Returns the number of members.
+	 *
+	 * @return Number of distinct numbers added
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot holding a number, or the empty slot where it would go.
+	 */
+	private static int find(int[] slots, int v) {
+		int mask = slots.length - 1;
+		int h = (v + 1) * 0x9E3779B1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (slots[slot] != 0 && slots[slot] != v + 1) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,115 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class finishes the posting lists of a new index once all documents are merged:
+ * each list is sorted in descending order of frequency if it is not already, and
+ * compressed. Lists are independent, so they are finished on a fork-join pool. The lists
+ * are split in two halves of about the same number of occurrences, and the halves again,
+ * until a half holds about GRAIN occurrences; the many small lists of rare keywords are
+ * then finished together by one task, while a list longer than PARALLEL_SORT, of which
+ * there are few but which hold most occurrences, is sorted by several workers at once.
+ *
+ */
+final class ListFinalizer extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Occurrences finished by one task without splitting.
+	 */
+	static final int GRAIN = 1 << 14;
+
+	/**
+	 * Occurrences in a list sorted in parallel.
+	 */
+	static final int PARALLEL_SORT = 1 << 16;
+
+	/**
+	 * Work counted for a list besides its occurrences, so that batches of tiny lists are not too long.
+	 */
+	private static final int LIST_COST = 16;
+
+	/**
+	 * Lists to finish, and the work of each list and all lists before it.
+	 */
+	private final PostingList[] lists;
+	private final long[] work;
+
+	/**
+	 * Range of lists finished by this task.
+	 */
+	private final int from, to;
+
+	/**
+	 * True if lists are sorted before they are compressed.
+	 */
+	private final boolean sort;
+
+	private ListFinalizer(PostingList[] lists, long[] work, int from, int to, boolean sort) {
+		this.lists = lists;
+		this.work = work;
+		this.from = from;
+		this.to = to;
+		this.sort = sort;
+	}
+
+	/**
+	 * Sorts, if asked to, and compresses lists.
+	 *
+	 * @param lists Lists to finish
+	 * @param sort True to sort each list in descending order of frequency first
+	 * @param threads Number of worker threads, 1 or less to finish the lists one after the other
+	 */
+	static void finish(Collection<PostingList> lists, boolean sort, int threads) {
+		PostingList[] all = lists.toArray(new PostingList[lists.size()]);
+		if (threads <= 1) {
+			for (PostingList occs : all) {
+				finish(occs, sort, false);
+			}
+			return;
+		}
+		long[] work = new long[all.length + 1];
+		for (int i = 0; i < all.length; i++) {
+			work[i+1] = work[i] + LIST_COST + all[i].size();
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ListFinalizer(all, work, 0, all.length, sort));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Finishes one list.
+	 */
+	private static void finish(PostingList occs, boolean sort, boolean parallel) {
+		if (sort) {
+			occs.sort(parallel);
+		}
+		occs.compress();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.RecursiveAction#compute()
+	 */
+	protected void compute() {
+		if (to - from == 1 || work[to] - work[from] <= GRAIN) {
+			for (int i = from; i < to; i++) {
+				finish(lists[i], sort, lists[i].size() >= PARALLEL_SORT);
+			}
+			return;
+		}
+		// split where the work before and after is about the same, leaving at least one list each side
+		long half = (work[from] + work[to]) / 2;
+		int mid = Arrays.binarySearch(work, from + 1, to, half);
+		if (mid < 0) {
+			mid = -mid - 1;
+		}
+		mid = Math.max(from + 1, Math.min(to - 1, mid));
+		invokeAll(new ListFinalizer(lists, work, from, mid, sort), new ListFinalizer(lists, work, mid, to, sort));
+	}
+}
@@ -2,6 +2,9 @@ package search;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.nio.file.*;
 
 /**
  * This class encapsulates an occurrence of a keyword in a document. It stores the
@@ -44,34 +47,96 @@ class Occurrence {
  * which it occurs, with frequency of occurrence in each document. Once the index is built,
  * the documents can searched on for keywords.
  *
+ * Searches can run on any number of threads, also while the index is being changed. The
+ * index is held in immutable generations (see IndexGeneration): a search reads the generation
+ * current when it starts, without locking. Changes (makeIndex, mergeKeyWords, addDocument,
+ * removeDocument, updateDocument, openIndex) are made by one thread at a time, which builds
+ * the next generation off to the side and publishes it with a single reference swap, so a
+ * search never sees a change half made.
+ *
  */
 public class LittleSearchEngine {
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Ways makeIndex can keep occurrence lists in order while merging documents.
+	 */
+	public enum MergeMode {
+		/**
+		 * Each occurrence is inserted at its spot, found by binary search.
+		 */
+		INSERT,
+		/**
+		 * Occurrences are appended, and each list is sorted once all documents are merged.
+		 */
+		BULK
+	}
+	
+	/**
+	 * The current generation of the index. Each keyword maps to the list of all its occurrences
+	 * in documents, as (document ID, frequency) pairs, in descending order of occurrence frequencies.
+	 * Published lists are compressed and never changed.
+	 */
+	final AtomicReference<IndexGeneration> generation;
+	
+	/**
+	 * The set of all noise words. It is immutable, and replaced when noise words are loaded.
+	 */
+	volatile NoiseWordSet noiseWords;
+	
+	/**
+	 * How makeIndex keeps occurrence lists in order, BULK unless set otherwise.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	volatile MergeMode mergeMode;
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Size in bytes from which a document file is split into ranges counted in parallel, and
+	 * number of threads counting the ranges.
 	 */
-	HashMap<String,String> noiseWords;
+	private volatile long splitSize;
+	private volatile int splitThreads;
 	
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Cache of topK and top5search results, null if results are not cached.
+	 */
+	private volatile QueryCache cache;
+	
+	/**
+	 * Lock held by the one thread changing the index.
+	 */
+	private final Object writer = new Object();
+	
+	/**
+	 * Each keyword of the index mapped to itself, so that the keyword lists the documents
+	 * table keeps for each document share one String per keyword. Only used by the writer.
+	 */
+	private final HashMap<String,String> canonical = new HashMap<String,String>(1000);
+	
+	/**
+	 * Keyword counter of each thread loading documents, reused from one document to the next.
+	 */
+	private final ThreadLocal<TermCounter> counters = new ThreadLocal<TermCounter>() {
+		protected TermCounter initialValue() {
+			return new TermCounter(500);
+		}
+	};
+	
+	/**
+	 * Creates an empty index and an empty noiseWords set.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
-		noiseWords = new HashMap<String,String>(100,2.0f);
+		generation = new AtomicReference<IndexGeneration>(
+				new IndexGeneration(new HashMap<String,PostingList>(), new DocumentTable()));
+		mergeMode = MergeMode.BULK;
+		splitSize = DocumentTokenizer.WINDOW;
+		splitThreads = Runtime.getRuntime().availableProcessors();
+		noiseWords = NoiseWordSet.EMPTY;
 	}
 	
 	/**
 	 * This method indexes all keywords found in all the input documents. When this
-	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * method is done, the index will hold all keywords, each of which is associated 
+	 * with a list of occurrences, arranged in decreasing frequencies of occurrence.
+	 * The new index replaces the current one all at once.
 	 * 
 	 * @param docsFile Name of file that has a list of all the document file names, one name per line
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
@@ -79,18 +144,266 @@ public class LittleSearchEngine {
 	 */
 	public void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
-		// load noise words to hash table
+		makeIndex(docsFile, noiseWordsFile, 1);
+	}
+	
+	/**
+	 * Same as makeIndex(docsFile, noiseWordsFile), but loads documents on a pool of the
+	 * given number of worker threads. Documents are still merged one at a time, in the order
+	 * they appear in the docs file, so the resulting index is identical to the one built
+	 * sequentially. At most a few documents per worker are held in memory waiting to be merged.
+	 * Once all documents are merged, the workers also sort and compress the occurrence lists.
+	 * A name in the docs file that is a zip, tar or gzip file stands for the documents in it,
+	 * which are decompressed in memory as they are read (see DocumentSource.archive).
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads loading documents, 1 or less to index sequentially
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		try {
+			makeIndex(DocumentSource.fileList(docsFile), noiseWordsFile, threads);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Same as makeIndex(docsFile, noiseWordsFile, threads), but indexes the documents of a
+	 * source, such as a pipe or an archive, instead of the files named in a docs file. The
+	 * source is read up to the end, and closed. It is only asked for the next document when
+	 * fewer than a few documents per worker are waiting to be merged, so memory stays bounded
+	 * however long the source is.
+	 * 
+	 * @param source Documents to index
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads loading documents, 1 or less to index sequentially
+	 * @throws IOException If the noise words file is not found on disk, or a document cannot be read
+	 */
+	public void makeIndex(DocumentSource source, String noiseWordsFile, int threads) 
+	throws IOException {
+		try {
+			synchronized (writer) {
+				loadNoiseWords(noiseWordsFile);
+				// index all keywords into a new generation, off to the side
+				canonical.clear();
+				final IndexGeneration empty = new IndexGeneration(new HashMap<String,PostingList>(), new DocumentTable());
+				final HashMap<String,PostingList> lists = new HashMap<String,PostingList>(1000);
+				final boolean append = mergeMode == MergeMode.BULK;
+				loadAll(source, threads, new Merger() {
+					void merge(TermCounter.Counts kws) {
+						mergeKeyWords(kws, empty, lists, append);
+					}
+				});
+				// lists are final, sort them if needed and compress them
+				ListFinalizer.finish(lists.values(), append, threads);
+				generation.set(new IndexGeneration(lists, empty.documents));
+				clearCache();
+			}
+		} finally {
+			source.close();
+		}
+	}
+	
+	/**
+	 * Same as makeIndex(source, noiseWordsFile, threads), but for corpora whose occurrence lists
+	 * do not fit in memory. Occurrences are collected in memory until they take about the
+	 * given budget, then sorted and spilled to a run file next to the index file, and memory
+	 * starts over; once the source is read, the runs are merged into the index file, which is
+	 * then opened as by openIndex. The index is the same as the one makeIndex builds and
+	 * saveIndex writes. Besides the budget, memory holds the name and length of each document,
+	 * and one occurrence list per run while they are merged.
+	 * 
+	 * @param source Documents to index
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param indexFile Name of the index file to write
+	 * @param memoryBudget Bytes of occurrences held in memory before they are spilled to a run
+	 * @param threads Number of worker threads loading documents, 1 or less to index sequentially
+	 * @throws IOException If the noise words file is not found on disk, a document cannot be
+	 *         read, or a run or the index file cannot be written
+	 */
+	public void makeIndex(DocumentSource source, String noiseWordsFile, String indexFile, long memoryBudget, int threads) 
+	throws IOException {
+		if (memoryBudget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive");
+		}
+		File target = new File(indexFile).getAbsoluteFile();
+		File tmp = new File(target.getPath() + ".tmp");
+		final SpimiIndexer indexer = new SpimiIndexer(memoryBudget, target.getParentFile());
+		try {
+			synchronized (writer) {
+				loadNoiseWords(noiseWordsFile);
+				loadAll(source, threads, new Merger() {
+					void merge(TermCounter.Counts kws) 
+					throws IOException {
+						indexer.add(kws);
+					}
+				});
+				indexer.finish(tmp.getPath(), noiseWords);
+				Files.move(tmp.toPath(), target.toPath(), 
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				openIndex(indexFile);
+			}
+		} finally {
+			indexer.close();
+			tmp.delete();
+			source.close();
+		}
+	}
+	
+	/**
+	 * Sets how makeIndex keeps occurrence lists in order. Both modes give the same index;
+	 * BULK is faster when there are many documents per keyword.
+	 * 
+	 * @param mode INSERT to insert each occurrence in order as it is merged, BULK to sort
+	 *        each list once all documents are merged
+	 */
+	public void setMergeMode(MergeMode mode) {
+		mergeMode = mode;
+	}
+	
+	/**
+	 * Sets when loadKeyWords, and makeIndex, count the keywords of a single document file on
+	 * several threads. A file of at least minSize bytes is split into one range per thread,
+	 * each starting on white space, the ranges are counted in parallel, and their counts are
+	 * added up, so a very large document loads in about the time of its largest range. The
+	 * keywords and counts are the same as when the file is read by one thread. By default,
+	 * files larger than 64 MB are split over all processors.
+	 * 
+	 * @param minSize Size in bytes of the smallest file split
+	 * @param threads Number of threads counting a split file, 1 or less to never split files
+	 */
+	public void setDocumentSplit(long minSize, int threads) {
+		splitSize = Math.max(1, minSize);
+		splitThreads = threads;
+	}
+	
+	/**
+	 * Puts a cache in front of topK and top5search, or takes it away. Results are cached
+	 * by their lowercased keywords, so that searches differing only in case share a result,
+	 * and the results of a keyword are dropped as soon as its occurrences change.
+	 * 
+	 * @param cache Empty cache, such as new QueryCache(10000, QueryCache.Policy.TINY_LFU),
+	 *        or null to stop caching
+	 */
+	public void setQueryCache(QueryCache cache) {
+		synchronized (writer) {
+			this.cache = cache;
+		}
+	}
+	
+	/**
+	 * Returns the cache in front of topK and top5search, for its hit and miss counts.
+	 * 
+	 * @return The cache, or null if results are not cached
+	 */
+	public QueryCache queryCache() {
+		return cache;
+	}
+	
+	/**
+	 * Empties the cache, if any, once the whole index has been replaced.
+	 */
+	private void clearCache() {
+		QueryCache c = cache;
+		if (c != null) {
+			c.clear();
+		}
+	}
+	
+	/**
+	 * Takes the keywords of each document makeIndex loads, in source order.
+	 */
+	private static abstract class Merger {
+		abstract void merge(TermCounter.Counts kws) 
+		throws IOException;
+	}
+	
+	/**
+	 * Loads the documents of a source, on a pool of worker threads if more than one, and
+	 * hands their keywords to a merger in source order.
+	 * 
+	 * @param source Documents to index
+	 * @param threads Number of worker threads, 1 or less to load sequentially
+	 * @param merger Takes the keywords of each document
+	 * @throws IOException If a document cannot be read
+	 */
+	private void loadAll(DocumentSource source, int threads, Merger merger) 
+	throws IOException {
+		if (threads <= 1) {
+			for (DocumentSource.Document doc = source.next(); doc != null; doc = source.next()) {
+				merger.merge(countKeyWords(doc));
+			}
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			// loads run ahead of the merge by a bounded window, merges happen in list order
+			ArrayDeque<Future<TermCounter.Counts>> pending = new ArrayDeque<Future<TermCounter.Counts>>();
+			int window = threads * 4;
+			for (DocumentSource.Document next = source.next(); next != null; next = source.next()) {
+				final DocumentSource.Document doc = next;
+				pending.add(pool.submit(new Callable<TermCounter.Counts>() {
+					public TermCounter.Counts call() throws IOException {
+						return countKeyWords(doc);
+					}
+				}));
+				if (pending.size() >= window) {
+					merger.merge(awaitKeyWords(pending.remove()));
+				}
+			}
+			while (!pending.isEmpty()) {
+				merger.merge(awaitKeyWords(pending.remove()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Loads the noise words file into the noiseWords set.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		// load noise words to set
+		ArrayList<String> words = new ArrayList<String>(100);
 		Scanner sc = new Scanner(new File(noiseWordsFile));
 		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.put(word,word);
+			words.add(sc.next());
 		}
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
-		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
+		noiseWords = new NoiseWordSet(words);
+	}
+	
+	/**
+	 * Waits for a document, or a range of one, being counted on another thread, and returns its keywords.
+	 * 
+	 * @param load Pending result of countKeyWords
+	 * @return Keywords counted in the loaded document
+	 * @throws IOException If the document could not be read
+	 */
+	private TermCounter.Counts awaitKeyWords(Future<TermCounter.Counts> load) 
+	throws IOException {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while indexing", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
 		}
 	}
 
@@ -104,64 +417,415 @@ public class LittleSearchEngine {
 	 */
 	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
 	throws FileNotFoundException {
+		TermCounter.Counts kws;
+		try {
+			kws = countKeyWords(docFile);
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		HashMap<String,Occurrence> docMap = new HashMap<String,Occurrence>(kws.size()*2);
+		for (int i = 0; i < kws.size(); i++) {
+			docMap.put(kws.terms[i], new Occurrence(docFile, kws.counts[i]));
+		}
+		return docMap;
+	}
+	
+	/**
+	 * Same as loadKeyWords(docFile), but returns the keywords as counted, which is what the
+	 * merge step reads, without making an Occurrence for each.
+	 * 
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Keywords of the document with their frequencies
+	 * @throws IOException If the document file is not found on disk, or cannot be read
+	 */
+	TermCounter.Counts countKeyWords(String docFile) 
+	throws IOException {
 		// check if exists
 		if (docFile == null || docFile.length() == 0) {
 			throw new FileNotFoundException("File not found on disk");
 		}
-		// map for docFile
-		HashMap<String, Occurrence> docMap = new HashMap<String, Occurrence>(500, 2.0f);
+		// reads the docFile in through a mapped buffer
+		DocumentTokenizer tokens = new DocumentTokenizer(docFile);
 		try {
-			// reads the docFile in
-			BufferedReader filebr = new BufferedReader(new FileReader(docFile));
-			String line = filebr.readLine();
-			while (line != null) {
-				StringTokenizer go = new StringTokenizer(line);
-				// separates and checks words
-				while (go.hasMoreTokens()) {
-					String word = go.nextToken();
-					word = getKeyWord(word);
-					if (word != null && word.length() > 0) {
-						if (docMap.containsKey(word)) {
-							docMap.get(word).frequency++;
-						} else {
-							docMap.put(word, new Occurrence(docFile, 1));
+			int threads = splitThreads;
+			if (threads > 1 && tokens.size() >= splitSize) {
+				long[] ranges = tokens.split(threads);
+				if (ranges.length > 2) {
+					return countRanges(docFile, ranges);
+				}
+			}
+			return countKeyWords(docFile, tokens);
+		} finally {
+			tokens.close();
+		}
+	}
+	
+	/**
+	 * Counts the keywords of a document file a range at a time, each range on a worker thread
+	 * of its own, in that thread's counter. The counts of the ranges are then added up in
+	 * this thread's counter, in file order.
+	 * 
+	 * @param docFile Name of the document file
+	 * @param ranges File positions starting each range, then the end of file, as from DocumentTokenizer.split
+	 * @return Keywords of the document with their frequencies
+	 * @throws IOException If the document cannot be read
+	 */
+	private TermCounter.Counts countRanges(final String docFile, long[] ranges) 
+	throws IOException {
+		int parts = ranges.length - 1;
+		ExecutorService pool = Executors.newFixedThreadPool(parts);
+		try {
+			ArrayList<Future<TermCounter.Counts>> counted = new ArrayList<Future<TermCounter.Counts>>(parts);
+			for (int r = 0; r < parts; r++) {
+				final long from = ranges[r], to = ranges[r+1];
+				counted.add(pool.submit(new Callable<TermCounter.Counts>() {
+					public TermCounter.Counts call() throws IOException {
+						DocumentTokenizer tokens = new DocumentTokenizer(docFile, from, to);
+						try {
+							return countKeyWords(docFile, tokens);
+						} finally {
+							tokens.close();
 						}
 					}
-				}
-			line = filebr.readLine();
+				}));
+			}
+			TermCounter counter = counters.get();
+			counter.clear();
+			for (Future<TermCounter.Counts> part : counted) {
+				counter.addAll(awaitKeyWords(part));
 			}
-		} catch (IOException i) {
-			
+			return counter.take(docFile);
+		} finally {
+			pool.shutdownNow();
 		}
-		return docMap;
 	}
 	
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Scans a document of a source, the same way as countKeyWords(docFile).
+	 * 
+	 * @param doc Document to be scanned and loaded
+	 * @return Keywords of the document with their frequencies
+	 * @throws IOException If the document file is not found on disk, or the document cannot be read
+	 */
+	TermCounter.Counts countKeyWords(DocumentSource.Document doc) 
+	throws IOException {
+		if (doc.bytes == null && doc.reader == null) {
+			return countKeyWords(doc.name);
+		}
+		DocumentTokenizer tokens = doc.bytes != null ? new DocumentTokenizer(doc.bytes) : new DocumentTokenizer(doc.reader);
+		try {
+			return countKeyWords(doc.name, tokens);
+		} finally {
+			tokens.close();
+		}
+	}
+	
+	/**
+	 * Counts the keywords of a document from its tokens, in this thread's counter. Keywords
+	 * are tested and counted in the tokenizer's buffer, so a String is only made for the
+	 * first occurrence of each keyword.
+	 * 
+	 * @param name Name of the document
+	 * @param tokens Tokenizer over the document
+	 * @return Keywords of the document with their frequencies
+	 * @throws IOException If the document cannot be read
+	 */
+	private TermCounter.Counts countKeyWords(String name, DocumentTokenizer tokens) 
+	throws IOException {
+		TermCounter counter = counters.get();
+		// a document that failed to load may have left counts behind
+		counter.clear();
+		while (tokens.next()) {
+			int end = keyWordEnd(tokens.token, 0, tokens.length);
+			if (end > 0) {
+				counter.add(tokens.token, 0, end);
+			}
+		}
+		return counter.take(name);
+	}
+	
+	/**
+	 * Merges the keywords for a single document into the master index. For each keyword,
+	 * its Occurrence in the current document must be inserted in the correct place
+	 * (according to descending order of frequency) in the same keyword's occurrence list.
+	 * This is done by binary search, the same way insertLastOccurrence does it. The change
+	 * is published as a new generation of the index.
 	 * 
 	 * @param kws Keywords hash table for a document
 	 */
 	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
-		// variables
-		Iterator<String> iter = kws.keySet().iterator();
-		ArrayList<Occurrence> al = new ArrayList<Occurrence>();
-		// goes through kws and adds into keywordsIndex
-		while (iter.hasNext()) {
-			al.clear();
-			String key = iter.next();
-			if (keywordsIndex.containsKey(key)) {
-				keywordsIndex.get(key).add(kws.get(key));
-				System.out.println(key);
-//				insertLastOccurrence(keywordsIndex.get(key));
+		String[] terms = new String[kws.size()];
+		int[] freqs = new int[kws.size()];
+		String doc = null;
+		int n = 0, length = 0;
+		for (Map.Entry<String,Occurrence> kw : kws.entrySet()) {
+			doc = kw.getValue().document;
+			terms[n] = kw.getKey();
+			freqs[n++] = kw.getValue().frequency;
+			length += kw.getValue().frequency;
+		}
+		mergeKeyWords(new TermCounter.Counts(doc, terms, freqs, length));
+	}
+	
+	/**
+	 * Merges the counted keywords of a single document into the master index, as
+	 * mergeKeyWords(kws) does.
+	 * 
+	 * @param kws Keywords counted in a document
+	 */
+	private void mergeKeyWords(TermCounter.Counts kws) {
+		synchronized (writer) {
+			IndexGeneration gen = generation.get();
+			HashMap<String,PostingList> changes = new HashMap<String,PostingList>(kws.size()*2);
+			mergeKeyWords(kws, gen, changes, false);
+			publish(gen, changes);
+		}
+	}
+	
+	/**
+	 * Merges the keywords for a single document into a set of changed occurrence lists. A
+	 * keyword's list starts as a copy of its list in the given generation. Occurrences are
+	 * inserted in order, or appended to be sorted later. A document without keywords is not
+	 * numbered.
+	 * 
+	 * @param kws Keywords counted in a document
+	 * @param gen Generation the changes are made to; its documents table numbers the document
+	 * @param changes Changed occurrence lists, by keyword
+	 * @param append True to append occurrences at the end of their lists, false to insert them in order
+	 */
+	private void mergeKeyWords(TermCounter.Counts kws, IndexGeneration gen, 
+			HashMap<String,PostingList> changes, boolean append) {
+		if (kws.size() == 0) {
+			return;
+		}
+		int id = gen.documents.id(kws.name);
+		// goes through kws and adds into the changed lists
+		for (int i = 0; i < kws.size(); i++) {
+			PostingList occs = changed(gen, changes, kws.terms[i]);
+			if (append) {
+				occs.add(id, kws.counts[i]);
+			} else {
+				occs.insert(id, kws.counts[i]);
+			}
+		}
+		recordTerms(gen.documents, id, kws);
+	}
+	
+	/**
+	 * Returns the changed occurrence list of a keyword, starting it as a copy of the list in
+	 * the given generation if the keyword has not been changed yet.
+	 * 
+	 * @param gen Generation the changes are made to
+	 * @param changes Changed occurrence lists, by keyword
+	 * @param kw Keyword
+	 * @return Occurrence list that can be changed
+	 */
+	private static PostingList changed(IndexGeneration gen, HashMap<String,PostingList> changes, String kw) {
+		PostingList occs = changes.get(kw);
+		if (occs == null) {
+			PostingList current = gen.postings(kw);
+			occs = current == null ? new PostingList() : current.copy();
+			changes.put(kw, occs);
+		}
+		return occs;
+	}
+	
+	/**
+	 * Compresses a set of changed lists and publishes them as the next generation.
+	 * 
+	 * @param gen Generation the changes were made to, which must still be the current one
+	 * @param changes Changed occurrence lists, by keyword
+	 */
+	private void publish(IndexGeneration gen, HashMap<String,PostingList> changes) {
+		for (Map.Entry<String,PostingList> kw : changes.entrySet()) {
+			kw.getValue().compress();
+			if (kw.getValue().size() == 0 && gen.segment == null) {
+				canonical.remove(kw.getKey());
+			}
+		}
+		generation.set(gen.with(changes));
+		QueryCache c = cache;
+		if (c != null) {
+			c.invalidate(changes.keySet());
+		}
+	}
+	
+	/**
+	 * Records the keywords and the length of a merged document in the documents table.
+	 * 
+	 * The keywords array of kws is kept as the document's keywords, each replaced by the
+	 * one String shared by all documents with that keyword.
+	 * 
+	 * @param documents Table the document is numbered in
+	 * @param id Document ID
+	 * @param kws Keywords counted in the document
+	 */
+	private void recordTerms(DocumentTable documents, int id, TermCounter.Counts kws) {
+		String[] kw = kws.terms;
+		for (int i = 0; i < kw.length; i++) {
+			String term = canonical.get(kw[i]);
+			if (term == null) {
+				canonical.put(kw[i], kw[i]);
 			} else {
-				al.add(kws.get(key));
-				keywordsIndex.put(key, al);
+				kw[i] = term;
 			}
 		}
+		documents.setTerms(id, kw);
+		documents.setLength(id, kws.length);
+	}
+	
+	/**
+	 * Adds a document to the index. Only the occurrence lists of the document's keywords are
+	 * changed, each getting the document's occurrence inserted in order.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws IOException If the document file is not found on disk, or cannot be read
+	 * @throws IllegalArgumentException If the document is already in the index (use updateDocument)
+	 */
+	public void addDocument(String docFile) 
+	throws IOException {
+		TermCounter.Counts kws = countKeyWords(docFile);
+		synchronized (writer) {
+			if (generation.get().documents.find(docFile) >= 0) {
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			}
+			mergeKeyWords(kws);
+		}
+	}
+	
+	/**
+	 * Removes a document from the index. Its occurrence is taken out of the lists of its
+	 * keywords, and keywords left with no occurrences are dropped from the index.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was removed, false if it was not in the index
+	 */
+	public boolean removeDocument(String docFile) {
+		synchronized (writer) {
+			IndexGeneration gen = generation.get();
+			int id = gen.documents.find(docFile);
+			if (id < 0) {
+				return false;
+			}
+			HashMap<String,PostingList> changes = new HashMap<String,PostingList>();
+			removeOccurrences(gen, changes, id);
+			gen.documents.remove(docFile);
+			publish(gen, changes);
+			return true;
+		}
+	}
+	
+	/**
+	 * Reads a document again and updates the index to match its new contents. The document
+	 * keeps its ID, its old occurrences are removed, and the new ones inserted in order. A
+	 * document that is not in the index yet is added, and one left with no keywords is
+	 * removed. Searches see either the old or the new contents, never a mix.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws IOException If the document file is not found on disk, or cannot be read
+	 */
+	public void updateDocument(String docFile) 
+	throws IOException {
+		TermCounter.Counts kws = countKeyWords(docFile);
+		synchronized (writer) {
+			IndexGeneration gen = generation.get();
+			HashMap<String,PostingList> changes = new HashMap<String,PostingList>();
+			int id = gen.documents.find(docFile);
+			if (id >= 0) {
+				removeOccurrences(gen, changes, id);
+			}
+			mergeKeyWords(kws, gen, changes, false);
+			if (id >= 0 && kws.size() == 0) {
+				gen.documents.remove(docFile);
+			}
+			publish(gen, changes);
+		}
+	}
+	
+	/**
+	 * Takes a document's occurrences out of a set of changed lists. The document's keywords
+	 * are those recorded when it was merged; for a document that came from an index file they
+	 * are read from the file's forward index, so only the document's own lists are visited.
+	 * 
+	 * @param gen Generation the changes are made to
+	 * @param changes Changed occurrence lists, by keyword
+	 * @param id Document ID
+	 */
+	private void removeOccurrences(IndexGeneration gen, HashMap<String,PostingList> changes, int id) {
+		String[] kws = gen.documents.terms(id);
+		if (kws == null) {
+			kws = gen.segment != null ? gen.segment.keywords(id) : new String[0];
+		}
+		for (String kw : kws) {
+			PostingList occs = changes.get(kw);
+			if (occs == null) {
+				occs = gen.postings(kw);
+			}
+			if (occs == null) {
+				continue;
+			}
+			PostingList rest = occs.without(id);
+			if (rest != occs) {
+				changes.put(kw, rest);
+			}
+		}
+		gen.documents.setTerms(id, null);
+	}
+	
+	/**
+	 * Returns the occurrence list of a keyword in the current generation.
+	 * 
+	 * @param kw Keyword
+	 * @return Occurrences of the keyword, or null if it is not in the index or has none left
+	 */
+	PostingList postings(String kw) {
+		return generation.get().postings(kw);
+	}
+	
+	/**
+	 * Saves the index (all keywords with their occurrences, and the noise words) to a binary
+	 * index file, which can be opened again with openIndex. The file is written under a
+	 * temporary name and then renamed, so an index file open for searching is never
+	 * overwritten in place.
+	 * 
+	 * @param indexFile Name of the index file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void saveIndex(String indexFile) 
+	throws IOException {
+		IndexGeneration gen = generation.get();
+		HashMap<String,PostingList> lists = new HashMap<String,PostingList>(1000);
+		for (String kw : gen.keywords()) {
+			lists.put(kw, gen.postings(kw));
+		}
+		File tmp = new File(indexFile + ".tmp");
+		IndexFile.write(tmp.getPath(), lists, gen.stats, noiseWords);
+		Files.move(tmp.toPath(), new File(indexFile).toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Opens an index file written by saveIndex, replacing the current index and noise words.
+	 * The file is memory mapped, and occurrence lists are only read from it when a keyword
+	 * is searched for or merged into, so searches can start right away.
+	 * 
+	 * @param indexFile Name of the index file to open
+	 * @throws IOException If the file cannot be read, or is not an index file, or only a segment of one
+	 */
+	public void openIndex(String indexFile) 
+	throws IOException {
+		IndexFile opened = IndexFile.open(indexFile);
+		if (opened.firstDocument != 0) {
+			throw new IOException(indexFile + " is a segment, not a whole index");
+		}
+		synchronized (writer) {
+			canonical.clear();
+			noiseWords = new NoiseWordSet(Arrays.asList(opened.noiseWords));
+			generation.set(new IndexGeneration(opened));
+			clearCache();
+		}
 	}
 	
 	/**
@@ -176,33 +840,110 @@ public class LittleSearchEngine {
 	 * @return Keyword (word without trailing punctuation, LOWER CASE)
 	 */
 	public String getKeyWord(String word) {
-		// checks end of word until only letters remain
-		word = word.toLowerCase();
-		while (word.length() > 0 && 
-				!(Character.isLetter(word.charAt(word.length()-1))) &&
-				!(Character.isDigit(word.charAt(word.length()-1)))) {
-			if (word.endsWith(".") ||
-				word.endsWith(",") ||
-				word.endsWith("?") ||
-				word.endsWith(":") ||
-				word.endsWith(";") ||
-				word.endsWith("!")) {
-				word = word.substring(0, word.length()-1);
-			} else {
-				return null;
+		char[] chars = word.toCharArray();
+		return getKeyWord(chars, 0, chars.length);
+	}
+	
+	/**
+	 * Same as getKeyWord(String), but tests a range of characters in place. The range is
+	 * lowercased and stripped in a single pass from its end, and a word that fails the test
+	 * is rejected before anything is allocated, noise words included. The keyword String is only
+	 * created once the word has passed the test.
+	 * 
+	 * @param word Characters of the candidate word; the range is lowercased in place
+	 * @param off Index of the first character of the word
+	 * @param len Number of characters in the word
+	 * @return Keyword (word without trailing punctuation, LOWER CASE), or null if not a keyword
+	 */
+	public String getKeyWord(char[] word, int off, int len) {
+		int end = keyWordEnd(word, off, len);
+		if (end < 0) {
+			return null;
+		}
+		return end == off ? "" : new String(word, off, end-off);
+	}
+	
+	/**
+	 * Applies the keyword test of getKeyWord to a range of characters in place, without
+	 * making a String.
+	 * 
+	 * @param word Characters of the candidate word; the range is lowercased in place
+	 * @param off Index of the first character of the word
+	 * @param len Number of characters in the word
+	 * @return Index after the last character of the keyword, off if the word is all punctuation,
+	 *         or -1 if not a keyword
+	 */
+	int keyWordEnd(char[] word, int off, int len) {
+		// strips trailing punctuation
+		int end = off + len;
+		while (end > off) {
+			char c = word[end-1];
+			if (c != '.' && c != ',' && c != '?' && c != ':' && c != ';' && c != '!') {
+				break;
 			}
+			end--;
+		}
+		if (end == off) {
+			return off;
+		}
+		// checks remaining letters for other characters, lower casing as it goes,
+		// four ASCII letters at a time, then one by one from where that stops;
+		// a word with any non-ASCII character is lowercased as a whole instead
+		int from = off;
+		if (AsciiScan.enabled) {
+			for (; from + 4 <= end; from += 4) {
+				long chars = AsciiScan.pack(word, from);
+				if (!AsciiScan.letters(chars)) {
+					break;
+				}
+				AsciiScan.unpack(AsciiScan.lower(chars), word, from);
+			}
+		}
+		for (int i = end-1; i >= from; i--) {
+			char c = word[i];
+			if (c >= 0x80) {
+				return keyWordEndAnyScript(word, off, end);
+			}
+			if (!Character.isLetter(c)) {
+				return -1;
+			}
+			word[i] = Character.toLowerCase(c);
 		}
 		// checks if noise word
-		if (noiseWords.containsKey(word)) {
-			return null;
+		if (noiseWords.contains(word, off, end-off)) {
+			return -1;
+		}
+		return end;
+	}
+	
+	/**
+	 * Finishes the keyword test of keyWordEnd for a word with non-ASCII characters, once its
+	 * trailing punctuation is stripped. The word is lowercased with String.toLowerCase, which
+	 * unlike Character.toLowerCase looks at the letters around each one (a final sigma) and
+	 * may turn one character into several (a dotted capital I).
+	 * 
+	 * @param word Characters of the candidate word; the range is lowercased in place
+	 * @param off Index of the first character of the word
+	 * @param end Index after the last character of the word, past any punctuation
+	 * @return end, or -1 if not a keyword
+	 */
+	private int keyWordEndAnyScript(char[] word, int off, int end) {
+		String lower = new String(word, off, end-off).toLowerCase();
+		// a longer word only gains combining marks, which are not letters
+		if (lower.length() != end-off) {
+			return -1;
 		}
-		// checks remaining letters for other characters
-		for (int i = 0; i < word.length(); i++) {
-			if (!(Character.isLetter(word.charAt(i)))) {
-				return null;
+		for (int i = 0; i < lower.length(); i++) {
+			char c = lower.charAt(i);
+			if (!Character.isLetter(c)) {
+				return -1;
 			}
+			word[off+i] = c;
 		}
-		return word;
+		if (noiseWords.contains(word, off, end-off)) {
+			return -1;
+		}
+		return end;
 	}
 	
 	/**
@@ -210,6 +951,7 @@ public class LittleSearchEngine {
 	 * same list, based on ordering occurrences on descending frequencies. The elements
 	 * 0..n-2 in the list are already in the correct order. Insertion is done by
 	 * first finding the correct spot using binary search, then inserting at that spot.
+	 * An occurrence goes after any others with the same frequency.
 	 * 
 	 * @param occs List of Occurrences
 	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
@@ -217,23 +959,24 @@ public class LittleSearchEngine {
 	 *         your code - it is not used elsewhere in the program.
 	 */
 	public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
+		if (occs.size() < 2) {
+			return null;
+		}
 		ArrayList<Integer> pts = new ArrayList<Integer>();
-		int lo = 0, hi = occs.size()-2, spot = occs.size()-1;
+		int freq = occs.get(occs.size()-1).frequency;
+		int lo = 0, hi = occs.size()-2;
 		while (lo <= hi) {
 			int mid = (lo+hi)/2;
 			pts.add(mid);
-			if (occs.get(mid).frequency == occs.get(spot).frequency) {
-				occs.add(mid, occs.get(spot));
-				occs.remove(occs.size()-1);
-			}
-			if (occs.get(mid).frequency < occs.get(spot).frequency) {
-				hi = mid + 1;
+			if (occs.get(mid).frequency >= freq) {
+				lo = mid + 1;
 			} else {
-				lo = mid - 1;
+				hi = mid - 1;
 			}
 		}
-		occs.add(lo, occs.get(spot));
-		occs.remove(occs.size()-1);
+		if (lo < occs.size()-1) {
+			occs.add(lo, occs.remove(occs.size()-1));
+		}
 		return pts;
 	}
 	
@@ -252,67 +995,233 @@ public class LittleSearchEngine {
 	 *         the result is null.
 	 */
 	public ArrayList<String> top5search(String kw1, String kw2) {
-		ArrayList<String> fin = new ArrayList<String>(5);
-		// check if words are in the keywords table
-		if (keywordsIndex.get(kw1) == null && keywordsIndex.get(kw2) == null) {
-			return null;
-		} else if (keywordsIndex.get(kw1) == null && keywordsIndex.get(kw2) != null) {
-			for (int i = 0;i < 5;i++) {
-				fin.add(i, keywordsIndex.get(kw2).get(i).document);
-			}
-			return fin;
-		} else if (keywordsIndex.get(kw1) != null && keywordsIndex.get(kw2) == null) {
-			for (int i = 0;i < 5;i++) {
-				fin.add(i, keywordsIndex.get(kw1).get(i).document);
-			}
+		ArrayList<String> fin = topK(Arrays.asList(kw1, kw2), 5);
+		return fin.isEmpty() ? null : fin;
+	}
+	
+	/**
+	 * Search result for any number of keywords. A document is in the result set if any of the
+	 * keywords occurs in it, and documents are ranked by the highest frequency of any keyword in
+	 * them. Ties in frequency values are broken in favor of the keyword that comes first in the list,
+	 * as in top5search. Each matching document appears only once. Same as
+	 * topK(terms, k, ScoringModel.FREQUENCY), except that results come from the query cache
+	 * when one is set (see setQueryCache). Keywords are matched in lower case.
+	 * 
+	 * @param terms Keywords to search for, in order of preference
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k documents, best first; empty if there are no matching documents
+	 */
+	public ArrayList<String> topK(List<String> terms, int k) {
+		String[] normal = queryKeyWords(terms);
+		QueryCache c = cache;
+		if (c == null) {
+			return topK(normal, k);
+		}
+		QueryCache.Key key = new QueryCache.Key(normal, k);
+		String[] docs = c.get(key);
+		if (docs == null) {
+			// the epoch is read first, so a result from a generation replaced since is not cached
+			long epoch = c.epoch();
+			ArrayList<String> fin = topK(key.terms, k);
+			c.put(key, fin.toArray(new String[fin.size()]), epoch);
 			return fin;
 		}
-		// get AL for words
-		int i = 0, x = 0;
-		while ((fin.size() < 5) && (i < keywordsIndex.get(kw1).size()) && (x < keywordsIndex.get(kw2).size())) {
-			if (keywordsIndex.get(kw1).get(i).frequency >= keywordsIndex.get(kw2).get(x).frequency) {
-				if (check(fin, keywordsIndex.get(kw1).get(i).document)) {
-					fin.add(keywordsIndex.get(kw1).get(i).document);
-				}
-				i++;
-			} else {
-				if (check(fin, keywordsIndex.get(kw2).get(x).document)) {
-					fin.add(keywordsIndex.get(kw2).get(x).document);
+		return new ArrayList<String>(Arrays.asList(docs));
+	}
+	
+	/**
+	 * Runs a batch of searches, each ranked as topK(terms, k), all on the same generation of
+	 * the index. Each distinct keyword of the batch is looked up once, and for a keyword in
+	 * more than one search, the part of its occurrence list any of them can read (the first
+	 * k+1 occurrences, since a list only gives up occurrences of documents in the result) is
+	 * decoded once and shared. The searches are then run on these lists, split among worker
+	 * threads. Results do not come from or go to the query cache.
+	 * 
+	 * @param queries Keywords of each search, in order of preference
+	 * @param k Maximum number of documents in each result
+	 * @param threads Number of worker threads running searches, 1 or less to run them on this thread
+	 * @return Result of each search, in batch order: NAMES of at most k documents, best first
+	 */
+	public ArrayList<ArrayList<String>> topKBatch(List<List<String>> queries, final int k, int threads) {
+		final IndexGeneration gen = generation.get();
+		// count the searches each distinct keyword is in
+		String[][] normal = new String[queries.size()][];
+		HashMap<String,int[]> uses = new HashMap<String,int[]>(queries.size()*2);
+		for (int q = 0; q < normal.length; q++) {
+			normal[q] = queryKeyWords(queries.get(q));
+			for (String kw : normal[q]) {
+				int[] n = uses.get(kw);
+				if (n == null) {
+					uses.put(kw, new int[] {1});
+				} else {
+					n[0]++;
 				}
-				x++;
 			}
 		}
-		// adds rest on end if needed
-		if (fin.size() < 5) {
-			if (i < keywordsIndex.get(kw1).size() && !(x < keywordsIndex.get(kw2).size())) {
-				while (fin.size() < 5 && i < keywordsIndex.get(kw1).size()) {
-					if (check(fin, keywordsIndex.get(kw1).get(i).document)) {
-						fin.add(keywordsIndex.get(kw1).get(i).document);
-					}
-					i++;
-				}
-			} else if (!(i < keywordsIndex.get(kw1).size()) && x < keywordsIndex.get(kw2).size()) {
-				while (fin.size() < 5 && x < keywordsIndex.get(kw2).size()) {
-					if (check(fin, keywordsIndex.get(kw2).get(x).document)) {
-						fin.add(keywordsIndex.get(kw2).get(x).document);
+		// look up each keyword once, and decode it once if it is shared
+		HashMap<String,PostingList> found = new HashMap<String,PostingList>(uses.size()*2);
+		for (Map.Entry<String,int[]> kw : uses.entrySet()) {
+			PostingList occs = kw.getKey() == null ? null : gen.postings(kw.getKey());
+			if (occs != null && kw.getValue()[0] > 1) {
+				occs = occs.prefix(Math.max(0, k) + 1);
+			}
+			found.put(kw.getKey(), occs);
+		}
+		final PostingList[][] lists = new PostingList[normal.length][];
+		for (int q = 0; q < lists.length; q++) {
+			lists[q] = new PostingList[normal[q].length];
+			for (int t = 0; t < lists[q].length; t++) {
+				lists[q][t] = found.get(normal[q][t]);
+			}
+		}
+		final ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(lists.length);
+		for (int q = 0; q < lists.length; q++) {
+			results.add(null);
+		}
+		if (threads <= 1 || lists.length < 2) {
+			searchRange(gen, lists, k, 0, lists.length, results);
+			return results;
+		}
+		// contiguous ranges of searches, one per worker
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<?>> ranges = new ArrayList<Future<?>>(threads);
+			for (int w = 0; w < threads; w++) {
+				final int from = (int)((long)lists.length * w / threads);
+				final int to = (int)((long)lists.length * (w+1) / threads);
+				ranges.add(pool.submit(new Runnable() {
+					public void run() {
+						searchRange(gen, lists, k, from, to, results);
 					}
-					x++;
-				}
+				}));
 			}
+			for (Future<?> range : ranges) {
+				range.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while searching", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+	
+	/**
+	 * Runs a range of the searches of a batch, setting their results.
+	 * 
+	 * @param gen Generation the lists come from
+	 * @param lists Decoded lists of each search
+	 * @param k Maximum number of documents in each result
+	 * @param from Index of the first search of the range
+	 * @param to Index after the last search of the range
+	 * @param results Results of the batch; each worker sets only its own range
+	 */
+	private static void searchRange(IndexGeneration gen, PostingList[][] lists, int k, int from, int to, 
+			ArrayList<ArrayList<String>> results) {
+		for (int q = from; q < to; q++) {
+			int[] docs = TopKMerge.top(lists[q], k);
+			ArrayList<String> fin = new ArrayList<String>(docs.length);
+			for (int d : docs) {
+				fin.add(gen.documents.name(d));
+			}
+			results.set(q, fin);
+		}
+	}
+	
+	/**
+	 * Lowercases the keywords of a query the way getKeyWord does, so that they match the
+	 * keywords as indexed. Every search runs its keywords through this first.
+	 * 
+	 * @param terms Keywords as given in a query, some may be null
+	 * @return Lowercased keywords, in query order
+	 */
+	static String[] queryKeyWords(List<String> terms) {
+		String[] normal = new String[terms.size()];
+		for (int t = 0; t < normal.length; t++) {
+			String kw = terms.get(t);
+			normal[t] = kw == null ? null : kw.toLowerCase();
+		}
+		return normal;
+	}
+	
+	/**
+	 * Looks up the occurrence lists of lowercased keywords in a generation.
+	 * 
+	 * @param gen Generation to search
+	 * @param terms Lowercased keywords, some may be null
+	 * @return Occurrence list of each keyword, null for a keyword not in the index
+	 */
+	private static PostingList[] postings(IndexGeneration gen, String[] terms) {
+		PostingList[] lists = new PostingList[terms.length];
+		for (int t = 0; t < lists.length; t++) {
+			lists[t] = terms[t] == null ? null : gen.postings(terms[t]);
+		}
+		return lists;
+	}
+	
+	/**
+	 * Searches the current generation for lowercased keywords, ranking as topK(terms, k).
+	 */
+	private ArrayList<String> topK(String[] terms, int k) {
+		// one generation for the whole search
+		IndexGeneration gen = generation.get();
+		int[] docs = TopKMerge.top(postings(gen, terms), k);
+		ArrayList<String> fin = new ArrayList<String>(docs.length);
+		for (int d : docs) {
+			fin.add(gen.documents.name(d));
 		}
 		return fin;
 	}
 	
-	private boolean check(ArrayList<String> al, String docFile) {
-		// check if al is empty
-		if (al.size() == 0) {
-			return true;
+	/**
+	 * Search result for any number of keywords, where documents are ranked by a scoring model,
+	 * such as TF-IDF or BM25. The keyword weights and document length factors the model needs
+	 * are made once for the search, from the number of documents each keyword occurs in (the
+	 * size of its occurrence list) and the document norms kept as documents are indexed.
+	 * Keywords are matched in lower case.
+	 * 
+	 * @param terms Keywords to search for, in order of preference
+	 * @param k Maximum number of documents in the result
+	 * @param model Scoring model, such as ScoringModel.BM25
+	 * @return List of NAMES of at most k documents, best first; empty if there are no matching documents
+	 */
+	public ArrayList<String> topK(List<String> terms, int k, ScoringModel model) {
+		IndexGeneration gen = generation.get();
+		PostingList[] lists = postings(gen, queryKeyWords(terms));
+		int[] docs = model.top(lists, gen.stats, k);
+		ArrayList<String> fin = new ArrayList<String>(docs.length);
+		for (int d : docs) {
+			fin.add(gen.documents.name(d));
 		}
-		for (int i = 0; i < al.size(); i++) {
-			if (al.get(i).equals(docFile)) {
-				return false;
-			}
+		return fin;
+	}
+	
+	/**
+	 * Search result for any number of keywords, where documents are ranked by the total
+	 * frequency of all the keywords in them rather than the highest one. Ties go to the document
+	 * indexed first. Only as much of each occurrence list is read as it takes to be sure of the
+	 * top k (see PrunedTopK), which for common keywords is a small part of the list.
+	 * Keywords are matched in lower case.
+	 * 
+	 * @param terms Keywords to search for
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k documents, best first; empty if there are no matching documents
+	 */
+	public ArrayList<String> topKByTotal(List<String> terms, int k) {
+		IndexGeneration gen = generation.get();
+		PostingList[] lists = postings(gen, queryKeyWords(terms));
+		int[] docs = PrunedTopK.top(lists, gen.stats.size, k);
+		ArrayList<String> fin = new ArrayList<String>(docs.length);
+		for (int d : docs) {
+			fin.add(gen.documents.name(d));
 		}
-		return true;
+		return fin;
 	}
 }
@@ -0,0 +1,153 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is an immutable set of noise words. All the words are stored back to back
+ * in a single character array, and located through an open addressing hash table of
+ * word numbers, so membership of a range of characters can be tested without creating
+ * a String or any other object.
+ *
+ */
+final class NoiseWordSet {
+
+	/**
+	 * The set with no noise words.
+	 */
+	static final NoiseWordSet EMPTY = new NoiseWordSet(Collections.<String>emptyList());
+
+	/**
+	 * Characters of all words, one after the other.
+	 */
+	private final char[] chars;
+
+	/**
+	 * Start of each word in chars. Word i is chars[starts[i]..starts[i+1]-1].
+	 */
+	private final int[] starts;
+
+	/**
+	 * Hash table of word numbers plus one; 0 marks an empty slot.
+	 */
+	private final int[] slots;
+
+	/**
+	 * Number of slots minus one (number of slots is a power of 2).
+	 */
+	private final int mask;
+
+	/**
+	 * Builds the set of the given words. Duplicates are stored once.
+	 *
+	 * @param words Noise words
+	 */
+	NoiseWordSet(Collection<String> words) {
+		int cap = 2;
+		while (cap < words.size()*2) {
+			cap *= 2;
+		}
+		slots = new int[cap];
+		mask = cap - 1;
+		int total = 0;
+		for (String w : words) {
+			total += w.length();
+		}
+		char[] pool = new char[total];
+		int[] offs = new int[words.size()+1];
+		int n = 0, pos = 0;
+		for (String w : words) {
+			w.getChars(0, w.length(), pool, pos);
+			int slot = find(pool, offs, n, pool, pos, w.length());
+			if (slots[slot] != 0) {
+				continue;
+			}
+			slots[slot] = n + 1;
+			pos += w.length();
+			offs[++n] = pos;
+		}
+		chars = Arrays.copyOf(pool, pos);
+		starts = Arrays.copyOf(offs, n+1);
+	}
+
+	/**
+	 * Tells whether a range of characters is one of the noise words.
+	 *
+	 * @param word Characters holding the candidate word
+	 * @param off Index of the first character of the word
+	 * @param len Number of characters in the word
+	 * @return True if the word is in this set, false otherwise
+	 */
+	boolean contains(char[] word, int off, int len) {
+		return slots[find(chars, starts, starts.length-1, word, off, len)] != 0;
+	}
+
+	/**
+	 * Tells whether a word is one of the noise words.
+	 *
+	 * @param word Candidate word
+	 * @return True if the word is in this set, false otherwise
+	 */
+	boolean contains(String word) {
+		char[] w = word.toCharArray();
+		return contains(w, 0, w.length);
+	}
+
+	/**
+	 * Returns the noise words, in the order they were first given.
+	 *
+	 * @return List of the distinct words in this set
+	 */
+	List<String> words() {
+		ArrayList<String> words = new ArrayList<String>(size());
+		for (int i = 0; i < size(); i++) {
+			words.add(new String(chars, starts[i], starts[i+1]-starts[i]));
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the number of noise words.
+	 *
+	 * @return Number of distinct words in this set
+	 */
+	int size() {
+		return starts.length - 1;
+	}
+
+	/**
+	 * Probes the hash table for a word, among the first n words of the given pool.
+	 *
+	 * @return Slot holding the word, or the empty slot where it would go
+	 */
+	private int find(char[] pool, int[] offs, int n, char[] word, int off, int len) {
+		int h = 0;
+		for (int i = off; i < off+len; i++) {
+			h = 31*h + word[i];
+		}
+		h *= 0x9E3779B1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (slots[slot] != 0) {
+			int w = slots[slot] - 1;
+			if (w < n && equal(pool, offs[w], offs[w+1], word, off, len)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Compares pool[start..end-1] against word[off..off+len-1].
+	 */
+	private static boolean equal(char[] pool, int start, int end, char[] word, int off, int len) {
+		if (end - start != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (pool[start+i] != word[off+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
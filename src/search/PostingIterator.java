@@ -0,0 +1,220 @@
+package search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class steps through the occurrences of a posting list, decoding them one at a time
+ * if the list is compressed. It is positioned before the first occurrence when created.
+ *
+ * The iterator can also look at the block holding the next occurrence (see PostingList),
+ * and skip the rest of it. Only compressed lists of more than one block have a block index;
+ * for other lists the block bounds returned are the widest possible, so that they are never
+ * skipped by mistake.
+ *
+ */
+final class PostingIterator {
+
+	/**
+	 * Packed pairs of an uncompressed list, null for a compressed one.
+	 */
+	private final int[] pairs;
+
+	/**
+	 * Encoded occurrences of a compressed list, null for an uncompressed one.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * Number of occurrences in the list.
+	 */
+	private final int size;
+
+	/**
+	 * Number of occurrences not yet stepped over.
+	 */
+	private int remaining;
+
+	/**
+	 * Number of blocks in the block index, 0 if there is none.
+	 */
+	private int blocks;
+
+	/**
+	 * Position in data of the block index.
+	 */
+	private int indexStart;
+
+	/**
+	 * Position in data of the first block.
+	 */
+	private int blocksStart;
+
+	/**
+	 * Index of the current occurrence in pairs.
+	 */
+	private int index;
+
+	/**
+	 * Current document ID.
+	 */
+	private int doc;
+
+	/**
+	 * Current frequency.
+	 */
+	private int frequency;
+
+	/**
+	 * Creates an iterator over packed pairs.
+	 */
+	PostingIterator(int[] pairs, int size) {
+		this.pairs = pairs;
+		this.data = null;
+		this.size = size;
+		remaining = size;
+		index = -1;
+	}
+
+	/**
+	 * Creates an iterator over encoded occurrences.
+	 */
+	PostingIterator(ByteBuffer data, int size) {
+		this.pairs = null;
+		this.data = data;
+		this.size = size;
+		remaining = size;
+		blocks = readVInt();
+		indexStart = data.position();
+		blocksStart = indexStart + blocks*PostingList.BLOCK_ENTRY;
+		data.position(blocksStart);
+	}
+
+	/**
+	 * Moves to the next occurrence.
+	 *
+	 * @return True if there is a next occurrence, false at the end of the list
+	 */
+	boolean next() {
+		if (remaining == 0) {
+			return false;
+		}
+		remaining--;
+		if (pairs != null) {
+			index++;
+			doc = pairs[index*2];
+			frequency = pairs[index*2+1];
+		} else {
+			if ((size - remaining - 1) % PostingList.BLOCK == 0) {
+				frequency = 0;
+				doc = 0;
+			}
+			frequency += unzigzag(readVInt());
+			doc += unzigzag(readVInt());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the highest frequency in the block holding the next occurrence.
+	 *
+	 * @return Highest frequency in the block, Integer.MAX_VALUE if the list has no block index
+	 */
+	int blockMaxFrequency() {
+		return blocks > 0 && remaining > 0 ? data.getInt(entry() + 4) : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the lowest document ID in the block holding the next occurrence.
+	 *
+	 * @return Lowest document ID in the block, 0 if the list has no block index
+	 */
+	int blockMinDoc() {
+		return blocks > 0 && remaining > 0 ? data.getInt(entry() + 8) : 0;
+	}
+
+	/**
+	 * Returns the highest document ID in the block holding the next occurrence.
+	 *
+	 * @return Highest document ID in the block, Integer.MAX_VALUE if the list has no block index
+	 */
+	int blockMaxDoc() {
+		return blocks > 0 && remaining > 0 ? data.getInt(entry() + 12) : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Skips the rest of the block holding the next occurrence, so that next moves to the
+	 * first occurrence of the following block. The current occurrence is then unknown until
+	 * next is called.
+	 */
+	void skipBlock() {
+		int at = size - remaining;
+		int end = Math.min(size, (at / PostingList.BLOCK + 1) * PostingList.BLOCK);
+		if (pairs != null) {
+			index += end - at;
+		} else if (end == size) {
+			data.position(data.limit());
+		} else if (blocks > 0) {
+			data.position(blocksStart + data.getInt(indexStart + end / PostingList.BLOCK * PostingList.BLOCK_ENTRY));
+		} else {
+			while (remaining > size - end) {
+				next();
+			}
+		}
+		remaining = size - end;
+	}
+
+	/**
+	 * Returns the position in data of the block index entry of the block holding the next occurrence.
+	 */
+	private int entry() {
+		return indexStart + (size - remaining) / PostingList.BLOCK * PostingList.BLOCK_ENTRY;
+	}
+
+	/**
+	 * Returns the document ID of the current occurrence.
+	 *
+	 * @return Document ID
+	 */
+	int doc() {
+		return doc;
+	}
+
+	/**
+	 * Returns the frequency of the current occurrence.
+	 *
+	 * @return Frequency of the keyword in the document
+	 */
+	int frequency() {
+		return frequency;
+	}
+
+	/**
+	 * Returns the number of occurrences after the current one.
+	 *
+	 * @return Number of occurrences left
+	 */
+	int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * Reads a variable-byte number written by PostingList.
+	 */
+	private int readVInt() {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = data.get();
+			v |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+	}
+
+	/**
+	 * Reverses the zigzag mapping.
+	 */
+	private static int unzigzag(int v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
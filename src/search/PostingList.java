@@ -0,0 +1,441 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the list of occurrences of a keyword, as (document ID, frequency) pairs.
+ * While the list is being built, the pairs are packed one after the other in a single int
+ * array. Once built, the list can be compressed: each pair is then stored as the change in
+ * frequency and the change in document ID from the previous pair, zigzag encoded (so that
+ * negative changes stay small) and written as variable-byte numbers. Since lists are kept in
+ * descending order of frequency, the changes are mostly 0 or small, and most pairs take two
+ * bytes.
+ *
+ * A compressed list is cut into blocks of BLOCK pairs, and the changes start over from (0, 0)
+ * at each block. Lists longer than one block start with a block index: for each block, where
+ * its bytes start, its highest frequency and its lowest and highest document IDs. A search can
+ * then tell from the index alone that a block holds none of the documents it is looking for,
+ * and skip it without decoding it. In the long tail of a list, where many documents share the
+ * same low frequency, they are in ID order, so the ID ranges of blocks there hardly overlap.
+ *
+ * A compressed list is read with a PostingIterator, and adding to it first expands it back
+ * to the int array. Once a list is in the index it may be read by many threads at once, so
+ * it is not changed any more: writers change a copy and put the copy in its place.
+ */
+final class PostingList {
+
+	/**
+	 * Number of pairs in a block of a compressed list.
+	 */
+	static final int BLOCK = 128;
+
+	/**
+	 * Size in bytes of an entry of the block index: start, highest frequency, lowest and highest document.
+	 */
+	static final int BLOCK_ENTRY = 16;
+
+	/**
+	 * Document ID and frequency of each occurrence: occurrence i is at 2*i and 2*i+1.
+	 * Null while the list is compressed.
+	 */
+	private int[] pairs;
+
+	/**
+	 * Encoded occurrences, from position 0 to the limit. Null unless the list is compressed.
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Number of occurrences.
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty list.
+	 */
+	PostingList() {
+		this(4);
+	}
+
+	/**
+	 * Creates an empty list with room for the given number of occurrences.
+	 *
+	 * @param capacity Number of occurrences the list can hold before it grows
+	 */
+	PostingList(int capacity) {
+		pairs = new int[Math.max(2, capacity*2)];
+	}
+
+	/**
+	 * Creates a compressed list over already encoded occurrences, such as a slice of a
+	 * mapped index file. The buffer is used as is, not copied.
+	 *
+	 * @param size Number of occurrences encoded
+	 * @param data Encoded occurrences, from position 0 to the limit
+	 */
+	PostingList(int size, ByteBuffer data) {
+		this.size = size;
+		this.data = data;
+	}
+
+	/**
+	 * Adds an occurrence at the end of the list.
+	 *
+	 * @param doc Document ID
+	 * @param freq Frequency of the keyword in the document
+	 */
+	void add(int doc, int freq) {
+		expand();
+		if (size*2 == pairs.length) {
+			pairs = Arrays.copyOf(pairs, pairs.length*2);
+		}
+		pairs[size*2] = doc;
+		pairs[size*2+1] = freq;
+		size++;
+	}
+
+	/**
+	 * Inserts an occurrence in descending order of frequency, after any occurrences with
+	 * the same frequency. The spot is found by binary search, and the occurrences after it
+	 * are shifted up by one.
+	 *
+	 * @param doc Document ID
+	 * @param freq Frequency of the keyword in the document
+	 */
+	void insert(int doc, int freq) {
+		add(doc, freq);
+		int lo = 0, hi = size-2;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (pairs[mid*2+1] >= freq) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (lo < size-1) {
+			System.arraycopy(pairs, lo*2, pairs, lo*2+2, (size-1-lo)*2);
+			pairs[lo*2] = doc;
+			pairs[lo*2+1] = freq;
+		}
+	}
+
+	/**
+	 * Sorts the list in descending order of frequency. Occurrences with the same frequency
+	 * keep their order, so the result is the same as inserting them one by one with insert.
+	 */
+	void sort() {
+		sort(false);
+	}
+
+	/**
+	 * Same as sort(), but the occurrences of a long list may be sorted by several threads
+	 * at once, on the fork-join pool of the caller.
+	 *
+	 * @param parallel True to sort in parallel
+	 */
+	void sort(boolean parallel) {
+		expand();
+		// sort keys are the complemented frequency, then the position in the list
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long)~pairs[i*2+1] << 32) | i;
+		}
+		if (parallel) {
+			Arrays.parallelSort(keys);
+		} else {
+			Arrays.sort(keys);
+		}
+		int[] sorted = new int[pairs.length];
+		for (int i = 0; i < size; i++) {
+			int from = (int)keys[i];
+			sorted[i*2] = pairs[from*2];
+			sorted[i*2+1] = pairs[from*2+1];
+		}
+		pairs = sorted;
+	}
+
+	/**
+	 * Returns the document ID of an occurrence, in a list that is not compressed.
+	 *
+	 * @param i Index of the occurrence, 0..size()-1
+	 * @return Document ID
+	 */
+	int doc(int i) {
+		checkExpanded();
+		return pairs[i*2];
+	}
+
+	/**
+	 * Returns the frequency of an occurrence, in a list that is not compressed.
+	 *
+	 * @param i Index of the occurrence, 0..size()-1
+	 * @return Frequency of the keyword in the document
+	 */
+	int frequency(int i) {
+		checkExpanded();
+		return pairs[i*2+1];
+	}
+
+	/**
+	 * Returns an uncompressed copy of the list, which can be changed without affecting this one.
+	 *
+	 * @return Copy of the list
+	 */
+	PostingList copy() {
+		PostingList c = new PostingList(size + 1);
+		if (data == null) {
+			System.arraycopy(pairs, 0, c.pairs, 0, size*2);
+			c.size = size;
+		} else {
+			PostingIterator it = iterator();
+			while (it.next()) {
+				c.add(it.doc(), it.frequency());
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Returns an uncompressed copy of the first occurrences of the list, decoding only those.
+	 *
+	 * @param n Number of occurrences to copy
+	 * @return Copy of the first n occurrences, or of all of them if there are fewer
+	 */
+	PostingList prefix(int n) {
+		PostingList c = new PostingList(Math.min(n, size));
+		PostingIterator it = iterator();
+		while (c.size < n && it.next()) {
+			c.add(it.doc(), it.frequency());
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the number of occurrences.
+	 *
+	 * @return Number of occurrences in the list
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns an iterator over the occurrences, in list order.
+	 *
+	 * @return Iterator positioned before the first occurrence
+	 */
+	PostingIterator iterator() {
+		if (data != null) {
+			return new PostingIterator(data.duplicate(), size);
+		}
+		return new PostingIterator(pairs, size);
+	}
+
+	/**
+	 * Returns a copy of the list without the occurrence in a given document.
+	 *
+	 * @param doc Document ID
+	 * @return Uncompressed copy without the document, or this list if the document is not in it
+	 */
+	PostingList without(int doc) {
+		PostingList c = new PostingList(size);
+		PostingIterator it = iterator();
+		while (it.next()) {
+			if (it.doc() != doc) {
+				c.add(it.doc(), it.frequency());
+			}
+		}
+		return c.size == size ? this : c;
+	}
+
+	/**
+	 * Joins the lists of a keyword over consecutive ranges of documents, keeping descending
+	 * order of frequency, then ascending document ID.
+	 *
+	 * @param lists Lists of the keyword, each in order, of ranges of documents in ascending order
+	 * @return The one list given, or an uncompressed list of all the occurrences
+	 */
+	static PostingList join(List<PostingList> lists) {
+		if (lists.size() == 1) {
+			return lists.get(0);
+		}
+		int size = 0;
+		PostingIterator[] its = new PostingIterator[lists.size()];
+		for (int r = 0; r < its.length; r++) {
+			size += lists.get(r).size();
+			its[r] = lists.get(r).iterator();
+			if (!its[r].next()) {
+				its[r] = null;
+			}
+		}
+		PostingList joined = new PostingList(size);
+		for (int n = 0; n < size; n++) {
+			// highest frequency first; a tie goes to the earlier list, which has the lower IDs
+			int best = -1;
+			for (int r = 0; r < its.length; r++) {
+				if (its[r] != null && (best < 0 || its[r].frequency() > its[best].frequency())) {
+					best = r;
+				}
+			}
+			joined.add(its[best].doc(), its[best].frequency());
+			if (!its[best].next()) {
+				its[best] = null;
+			}
+		}
+		return joined;
+	}
+
+	/**
+	 * Tells whether the list is compressed.
+	 *
+	 * @return True if the occurrences are held encoded
+	 */
+	boolean isCompressed() {
+		return data != null;
+	}
+
+	/**
+	 * Compresses the list, if it is not already compressed.
+	 */
+	void compress() {
+		if (data == null) {
+			data = encode(pairs, size);
+			pairs = null;
+		}
+	}
+
+	/**
+	 * Returns the encoded occurrences, without changing the list.
+	 *
+	 * @return Buffer holding the encoded occurrences from its position to its limit
+	 */
+	ByteBuffer encoded() {
+		return data != null ? data.duplicate() : encode(pairs, size);
+	}
+
+	/**
+	 * Returns the number of bytes the occurrences take up in memory.
+	 *
+	 * @return Size of the encoded data, or of the int array
+	 */
+	long memory() {
+		return data != null ? data.limit() : 4L*pairs.length;
+	}
+
+	/**
+	 * Fails if the list is compressed, since reading it by index would have to expand it.
+	 */
+	private void checkExpanded() {
+		if (data != null) {
+			throw new IllegalStateException("compressed posting list read by index");
+		}
+	}
+
+	/**
+	 * Expands a compressed list back to the int array.
+	 */
+	private void expand() {
+		if (data == null) {
+			return;
+		}
+		int[] p = new int[Math.max(2, size*2)];
+		PostingIterator it = iterator();
+		for (int i = 0; it.next(); i++) {
+			p[i*2] = it.doc();
+			p[i*2+1] = it.frequency();
+		}
+		pairs = p;
+		data = null;
+	}
+
+	/**
+	 * Encodes occurrences as variable-byte, zigzag encoded changes from the previous pair in
+	 * the same block. The encoding starts with the number of blocks as a variable-byte number,
+	 * 0 for a list of one block, and for longer lists the block index, BLOCK_ENTRY bytes per
+	 * block, with block starts counted from the end of the index.
+	 *
+	 * @param pairs Packed (document ID, frequency) pairs
+	 * @param size Number of pairs
+	 * @return Buffer of exactly the encoded bytes
+	 */
+	static ByteBuffer encode(int[] pairs, int size) {
+		int blocks = size > BLOCK ? (size + BLOCK-1) / BLOCK : 0;
+		int[] index = new int[blocks*4];
+		byte[] b = new byte[size*4 + 16];
+		int n = 0, doc = 0, freq = 0;
+		for (int i = 0; i < size; i++) {
+			if (n + 10 > b.length) {
+				b = Arrays.copyOf(b, b.length*2);
+			}
+			if (i % BLOCK == 0) {
+				doc = 0;
+				freq = 0;
+				if (blocks > 0) {
+					int e = i / BLOCK * 4;
+					index[e] = n;
+					index[e+1] = pairs[i*2+1];
+					index[e+2] = Integer.MAX_VALUE;
+					index[e+3] = Integer.MIN_VALUE;
+				}
+			}
+			if (blocks > 0) {
+				int e = i / BLOCK * 4;
+				index[e+2] = Math.min(index[e+2], pairs[i*2]);
+				index[e+3] = Math.max(index[e+3], pairs[i*2]);
+			}
+			n = writeVInt(b, n, zigzag(pairs[i*2+1] - freq));
+			n = writeVInt(b, n, zigzag(pairs[i*2] - doc));
+			doc = pairs[i*2];
+			freq = pairs[i*2+1];
+		}
+		byte[] head = new byte[5 + index.length*4];
+		int h = writeVInt(head, 0, blocks);
+		ByteBuffer out = ByteBuffer.allocate(h + index.length*4 + n);
+		out.put(head, 0, h);
+		for (int v : index) {
+			out.putInt(v);
+		}
+		out.put(b, 0, n);
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Writes a number 7 bits per byte, low bits first, the high bit set on all bytes but the last.
+	 *
+	 * @return Position after the last byte written
+	 */
+	private static int writeVInt(byte[] b, int n, int v) {
+		while ((v & ~0x7f) != 0) {
+			b[n++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b[n++] = (byte)v;
+		return n;
+	}
+
+	/**
+	 * Maps signed numbers to unsigned ones, small in absolute value to small.
+	 */
+	private static int zigzag(int v) {
+		return (v << 1) ^ (v >> 31);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		PostingIterator it = iterator();
+		for (int i = 0; it.next(); i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append('(').append(it.doc()).append(',').append(it.frequency()).append(')');
+		}
+		return sb.append(']').toString();
+	}
+}
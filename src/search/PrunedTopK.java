@@ -0,0 +1,580 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class finds the top documents for a set of keywords, where documents are ranked by
+ * the total frequency of all the keywords in them, without reading every occurrence of every
+ * keyword. Ties in total go to the document indexed first (lowest ID).
+ *
+ * Since each posting list is in descending order of frequency, the frequency at a list's
+ * cursor bounds every occurrence not read yet, and the sum of these bounds bounds the total
+ * of any document not seen yet. The search first reads the lists in parallel, always from
+ * the list with the highest bound, keeping the partial total of each document seen, and the
+ * best k of them in a min-heap, until the k-th best partial total is above the sum of the
+ * bounds. No unseen document can make the top k after that. The totals of the documents seen
+ * that still can are then completed from the rest of the lists, skipping the blocks (see
+ * PostingList) that hold none of them: in the long low-frequency tail of a list, where
+ * documents are in ID order, that is nearly every block. Documents are dropped as the bounds
+ * fall and the k-th total rises, until no list holds any document that can still make the top k.
+ *
+ * Partial totals only grow, so while reading in order the heap is kept up to date as each
+ * occurrence is read: a document already in it moves down, and one that is not replaces the
+ * root if it ranks above it. While completing, the heap is left as it is: the lowest total in
+ * it is still a lower bound of the k-th, good enough to drop documents by, and the heap is
+ * rebuilt from the documents kept at the end.
+ *
+ * Pruning does not always pay. When the bounds do not fall fast enough for reading in order
+ * to stop within the first 1/GIVE_UP of the occurrences, or when it stops with more documents
+ * kept than there are occurrences left, the rest is read list by list, as an exhaustive scan
+ * would, without choosing a list at each step, and the top k is selected at the end.
+ *
+ * Totals are kept in an array indexed by document ID and reused from one search to the next
+ * on the same thread, like the score tables of ScoringModel: it only grows with the index, and
+ * only the entries of the documents the last search saw are cleared.
+ *
+ */
+final class PrunedTopK {
+
+	/**
+	 * Most keywords whose occurrences are tracked per document; longer queries read all lists.
+	 */
+	static final int MAX_TERMS = 64;
+
+	/**
+	 * Reading in order gives up past 1/GIVE_UP of the occurrences, and the rest is read list by list.
+	 */
+	static final int GIVE_UP = 8;
+
+	/**
+	 * Occurrences read or skipped between two sweeps, per document kept.
+	 */
+	static final int SWEEP = 4;
+
+	/**
+	 * State of the searches run on each thread.
+	 */
+	private static final ThreadLocal<PrunedTopK> searches = new ThreadLocal<PrunedTopK>() {
+		protected PrunedTopK initialValue() {
+			return new PrunedTopK();
+		}
+	};
+
+	/**
+	 * Cursor over each list, at the next occurrence to read.
+	 */
+	private PostingIterator[] its;
+
+	/**
+	 * Frequency at each cursor, which bounds the rest of the list; 0 once the list is read out.
+	 */
+	private long[] bound;
+
+	/**
+	 * Number of occurrences in each list.
+	 */
+	private int[] sizes;
+
+	/**
+	 * Number of occurrences in all the lists.
+	 */
+	private long total;
+
+	/**
+	 * Number of occurrences read in order.
+	 */
+	private long read;
+
+	/**
+	 * For document d, state[2*d] is its partial total, -1 once it is dropped, and state[2*d + 1]
+	 * has bit t set if it was seen in list t, 0 if it was not seen at all. Both are kept side by
+	 * side so that an occurrence updates a single cache line.
+	 */
+	private long[] state = new long[0];
+
+	/**
+	 * For each document, by ID, its index in the heap plus one; 0 if not in the heap. Only
+	 * kept up to date while reading in order, and all 0 otherwise.
+	 */
+	private int[] heapAt = new int[0];
+
+	/**
+	 * IDs of the documents seen, in the order they were first seen.
+	 */
+	private int[] touched = new int[256];
+
+	/**
+	 * Number of documents seen.
+	 */
+	private int count;
+
+	/**
+	 * For each list, a bitmap of the documents kept that it may still hold, while completing;
+	 * all clear otherwise.
+	 */
+	private long[][] missing = new long[0][];
+
+	/**
+	 * Min-heap of the best documents so far, worst at the root.
+	 */
+	private int[] heap = new int[0];
+
+	/**
+	 * Number of documents the heap holds once full.
+	 */
+	private int k;
+
+	/**
+	 * Number of documents in the heap.
+	 */
+	private int inHeap;
+
+	/**
+	 * True while heapAt is kept up to date with the heap.
+	 */
+	private boolean positions;
+
+	/**
+	 * Ranks the documents holding any of the keywords of a query.
+	 *
+	 * @param lists Posting list of each keyword; null for a keyword not in the index
+	 * @param docs Number of documents in the index; every ID in the lists is below it
+	 * @param k Maximum number of documents to return; none if not positive
+	 * @return IDs of at most k documents, highest total first
+	 */
+	static int[] top(PostingList[] lists, int docs, int k) {
+		if (k <= 0) {
+			return new int[0];
+		}
+		PrunedTopK search = searches.get();
+		try {
+			return search.search(lists, docs, k);
+		} finally {
+			search.clear();
+		}
+	}
+
+	/**
+	 * Runs a search with the state of this thread.
+	 */
+	private int[] search(PostingList[] lists, int docs, int k) {
+		int n = lists.length;
+		its = new PostingIterator[n];
+		bound = new long[n];
+		sizes = new int[n];
+		total = 0;
+		for (int t = 0; t < n; t++) {
+			if (lists[t] != null) {
+				sizes[t] = lists[t].size();
+				total += sizes[t];
+				its[t] = lists[t].iterator();
+				if (its[t].next()) {
+					bound[t] = its[t].frequency();
+				}
+			}
+		}
+		// no more documents can come out than there are occurrences
+		this.k = (int)Math.min(k, total);
+		if (this.k == 0) {
+			return new int[0];
+		}
+		if (state.length < 2*docs) {
+			state = new long[2*docs];
+			heapAt = new int[docs];
+		}
+		if (heap.length < this.k) {
+			heap = new int[this.k];
+		}
+		positions = true;
+		boolean stopped = readInOrder();
+		// the heap is rebuilt from here on, so positions in it are no longer needed
+		for (int i = 0; i < inHeap; i++) {
+			heapAt[heap[i]] = 0;
+		}
+		positions = false;
+		// completing is worth it while fewer documents are kept than there are occurrences left
+		if (stopped && count < total - read) {
+			complete(docs);
+		} else {
+			readAll();
+		}
+		return ranked();
+	}
+
+	/**
+	 * Reads the lists in order of frequency until no document unseen can make the top k.
+	 * Occurrences of the same frequency in a list are read in a run, since its bound stays
+	 * the same until the run ends.
+	 *
+	 * @return True if reading stopped early, false if it gave up or the lists were read out
+	 */
+	private boolean readInOrder() {
+		int n = bound.length;
+		if (n > MAX_TERMS) {
+			return false;
+		}
+		long threshold = 0;
+		for (long b : bound) {
+			threshold += b;
+		}
+		read = 0;
+		while (threshold > 0) {
+			if (read > total/GIVE_UP) {
+				return false;
+			}
+			// read from the list with the highest bound, for as long as its frequency stays the same
+			int t = 0;
+			for (int i = 1; i < n; i++) {
+				if (bound[i] > bound[t]) {
+					t = i;
+				}
+			}
+			PostingIterator it = its[t];
+			int freq = (int)bound[t];
+			do {
+				// the k-th total is above the threshold, so no document unseen can reach it
+				if (inHeap == k && state[2*heap[0]] > threshold) {
+					return true;
+				}
+				int d = it.doc();
+				add(d, t, freq);
+				offer(d);
+				read++;
+			} while (it.next() && it.frequency() == freq);
+			bound[t] = it.frequency() != freq ? it.frequency() : 0;
+			threshold += bound[t] - freq;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the rest of every list, one list after the other, and selects the top k from all
+	 * the documents seen.
+	 */
+	private void readAll() {
+		for (int t = 0; t < bound.length; t++) {
+			if (bound[t] == 0) {
+				continue;
+			}
+			PostingIterator it = its[t];
+			do {
+				add(it.doc(), t, it.frequency());
+			} while (it.next());
+			bound[t] = 0;
+		}
+		select(touched, count);
+	}
+
+	/**
+	 * Completes the totals of the documents that can still make the top k, from the lists not
+	 * read out yet, and drops the others. Lists are searched a block at a time, always in the
+	 * list with the highest bound, and a block holding none of the documents looked for in its
+	 * list is skipped. Each block read or skipped lowers the bound of its list to the highest
+	 * frequency of the next block, so more documents are dropped as the search goes on, and
+	 * fewer blocks need reading. A list is done once none of the documents kept is missing
+	 * from it.
+	 *
+	 * @param docs Number of documents in the index
+	 */
+	private void complete(int docs) {
+		int n = bound.length;
+		int words = (docs >>> 6) + 1;
+		if (missing.length < n) {
+			missing = Arrays.copyOf(missing, n);
+		}
+		for (int t = 0; t < n; t++) {
+			if (missing[t] == null || missing[t].length < words) {
+				missing[t] = new long[words];
+			}
+		}
+		// documents kept, and for each list, how many of them it may still hold
+		int[] kept = Arrays.copyOf(touched, count);
+		int[] left = new int[n];
+		long open = open();
+		for (int d : kept) {
+			for (long m = open & ~state[2*d + 1]; m != 0; m &= m - 1) {
+				int t = Long.numberOfTrailingZeros(m);
+				missing[t][d >>> 6] |= 1L << d;
+				left[t]++;
+			}
+		}
+		int alive = sweep(kept, kept.length, left);
+		// the cursor of each open list is still at an occurrence not read yet
+		boolean[] pending = new boolean[n];
+		for (int t = 0; t < n; t++) {
+			pending[t] = bound[t] > 0;
+		}
+		// a sweep is a pass over the documents kept, so one is made only once as many
+		// occurrences have been read or skipped since the last
+		long untilSweep = (long)alive*SWEEP;
+		while (true) {
+			int t = -1;
+			for (int i = 0; i < n; i++) {
+				if (bound[i] > 0 && left[i] > 0 && (t < 0 || bound[i] > bound[t])) {
+					t = i;
+				}
+			}
+			if (t < 0) {
+				break;
+			}
+			PostingIterator it = its[t];
+			int before = it.remaining();
+			if (pending[t]) {
+				pending[t] = false;
+				left[t] -= complete(t, it.doc(), it.frequency());
+			}
+			long last = bound[t];
+			if (it.remaining() == 0) {
+				last = 0;
+			} else if (!holdsAny(missing[t], it.blockMinDoc(), it.blockMaxDoc())) {
+				it.skipBlock();
+			} else {
+				// read up to the end of the block
+				do {
+					it.next();
+					left[t] -= complete(t, it.doc(), it.frequency());
+					last = it.frequency();
+				} while (it.remaining() > 0 && (sizes[t] - it.remaining()) % PostingList.BLOCK != 0);
+			}
+			bound[t] = it.remaining() > 0 ? Math.min(last, it.blockMaxFrequency()) : 0;
+			untilSweep -= before - it.remaining() + 1;
+			if (untilSweep <= 0) {
+				alive = sweep(kept, alive, left);
+				untilSweep = (long)alive*SWEEP;
+			}
+		}
+		select(kept, alive);
+		// only the documents still kept can have bits left
+		for (int i = 0; i < alive; i++) {
+			for (int t = 0; t < n; t++) {
+				missing[t][kept[i] >>> 6] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the lists not read out yet, a bit per list.
+	 */
+	private long open() {
+		long open = 0;
+		for (int t = 0; t < bound.length; t++) {
+			if (bound[t] > 0) {
+				open |= 1L << t;
+			}
+		}
+		return open;
+	}
+
+	/**
+	 * Adds an occurrence read while completing to the total of its document, if it is kept.
+	 *
+	 * @return 1 if the document is kept, so that one fewer is looked for in the list; 0 if not
+	 */
+	private int complete(int t, int doc, int freq) {
+		if (state[2*doc + 1] == 0 || state[2*doc] < 0) {
+			return 0;
+		}
+		add(doc, t, freq);
+		missing[t][doc >>> 6] &= ~(1L << doc);
+		return 1;
+	}
+
+	/**
+	 * Drops the documents kept that can no longer reach the k-th total. The best total a
+	 * document can reach is its partial total plus the bounds of the open lists it has not
+	 * been seen in; a document in the heap is at least the k-th total, so it always stays.
+	 *
+	 * @param kept Documents kept, compacted in place
+	 * @param alive Number of documents in kept
+	 * @param left For each list, how many documents kept it may still hold; lowered for those dropped
+	 * @return Number of documents still kept
+	 */
+	private int sweep(int[] kept, int alive, int[] left) {
+		// the documents in the heap have only grown since it was last kept up to date, so the
+		// lowest of their totals is still no more than the k-th
+		long kth = Long.MAX_VALUE;
+		for (int i = 0; i < inHeap; i++) {
+			kth = Math.min(kth, state[2*heap[i]]);
+		}
+		long open = open();
+		int n = 0;
+		for (int i = 0; i < alive; i++) {
+			int d = kept[i];
+			long out = open & ~state[2*d + 1];
+			long best = state[2*d];
+			for (long m = out; m != 0; m &= m - 1) {
+				best += bound[Long.numberOfTrailingZeros(m)];
+			}
+			if (best >= kth) {
+				kept[n++] = d;
+				continue;
+			}
+			state[2*d] = -1;
+			for (long m = out; m != 0; m &= m - 1) {
+				int t = Long.numberOfTrailingZeros(m);
+				missing[t][d >>> 6] &= ~(1L << d);
+				left[t]--;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Adds an occurrence to the partial total of a document.
+	 */
+	private void add(int d, int t, int freq) {
+		if (state[2*d + 1] == 0) {
+			if (count == touched.length) {
+				touched = Arrays.copyOf(touched, count*2);
+			}
+			touched[count++] = d;
+		}
+		state[2*d] += freq;
+		state[2*d + 1] |= 1L << t;
+	}
+
+	/**
+	 * Moves a document whose total has grown into or down the heap.
+	 */
+	private void offer(int d) {
+		if (heapAt[d] > 0) {
+			// a higher total moves down a min-heap
+			siftDown(heapAt[d] - 1, inHeap);
+		} else if (inHeap < k) {
+			heap[inHeap] = d;
+			heapAt[d] = ++inHeap;
+			siftUp(inHeap - 1);
+		} else if (better(d, heap[0])) {
+			heapAt[heap[0]] = 0;
+			heap[0] = d;
+			heapAt[d] = 1;
+			siftDown(0, inHeap);
+		}
+	}
+
+	/**
+	 * Rebuilds the heap from the best of the given documents, once totals have grown without
+	 * it being kept up to date.
+	 *
+	 * @param docs Documents to choose from, holding every document in the heap
+	 * @param n Number of documents in docs
+	 */
+	private void select(int[] docs, int n) {
+		inHeap = 0;
+		for (int i = 0; i < n; i++) {
+			int d = docs[i];
+			if (inHeap < k) {
+				heap[inHeap++] = d;
+				siftUp(inHeap - 1);
+			} else if (better(d, heap[0])) {
+				heap[0] = d;
+				siftDown(0, inHeap);
+			}
+		}
+	}
+
+	/**
+	 * Returns the documents in the heap, by descending total, then ascending ID.
+	 */
+	private int[] ranked() {
+		// take the worst off the root until empty, filling the result from the back
+		int[] top = new int[inHeap];
+		for (int end = inHeap; end > 0; end--) {
+			top[end-1] = heap[0];
+			heap[0] = heap[end-1];
+			siftDown(0, end-1);
+		}
+		return top;
+	}
+
+	/**
+	 * Clears the entries of the documents the last search saw, and lets go of its lists.
+	 */
+	private void clear() {
+		for (int i = 0; i < count; i++) {
+			int d = touched[i];
+			state[2*d] = 0;
+			state[2*d + 1] = 0;
+		}
+		if (positions) {
+			for (int i = 0; i < inHeap; i++) {
+				heapAt[heap[i]] = 0;
+			}
+			positions = false;
+		}
+		count = 0;
+		inHeap = 0;
+		its = null;
+	}
+
+	/**
+	 * Tells whether document a ranks above document b.
+	 */
+	private boolean better(int a, int b) {
+		return state[2*a] != state[2*b] ? state[2*a] > state[2*b] : a < b;
+	}
+
+	/**
+	 * Moves the document at index i of the heap up to its place.
+	 */
+	private void siftUp(int i) {
+		while (i > 0 && better(heap[(i-1)/2], heap[i])) {
+			swap(i, (i-1)/2);
+			i = (i-1)/2;
+		}
+	}
+
+	/**
+	 * Moves the document at index i of a heap of n documents down to its place.
+	 */
+	private void siftDown(int i, int n) {
+		while (2*i + 1 < n) {
+			int c = 2*i + 1;
+			if (c + 1 < n && better(heap[c], heap[c+1])) {
+				c++;
+			}
+			if (!better(heap[i], heap[c])) {
+				return;
+			}
+			swap(i, c);
+			i = c;
+		}
+	}
+
+	/**
+	 * Swaps two documents of the heap, keeping their heap indexes.
+	 */
+	private void swap(int i, int j) {
+		int h = heap[i];
+		heap[i] = heap[j];
+		heap[j] = h;
+		if (positions) {
+			heapAt[heap[i]] = i + 1;
+			heapAt[heap[j]] = j + 1;
+		}
+	}
+
+	/**
+	 * Tells whether a bitmap of document IDs holds any in a range.
+	 */
+	private static boolean holdsAny(long[] bits, int min, int max) {
+		max = Math.min(max, bits.length*64 - 1);
+		if (min > max) {
+			return false;
+		}
+		int from = min >>> 6, to = max >>> 6;
+		long first = -1L << min, last = -1L >>> (63 - (max & 63));
+		if (from == to) {
+			return (bits[from] & first & last) != 0;
+		}
+		if ((bits[from] & first) != 0 || (bits[to] & last) != 0) {
+			return true;
+		}
+		for (int w = from + 1; w < to; w++) {
+			if (bits[w] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
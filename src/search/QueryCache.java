@@ -0,0 +1,414 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is a bounded cache of search results, in front of topK and top5search. Results
+ * are keyed on the query's keywords, lowercased the way getKeyWord lowercases them, and on
+ * the number of results asked for, so ("a","b") and ("A","b") share an entry; the order of
+ * the keywords is kept, since ties go to the keyword that comes first.
+ *
+ * When the cache is full, an entry is evicted by one of two policies. LRU evicts the least
+ * recently used entry. TINY_LFU (W-TinyLFU) keeps a small LRU window for new entries and a
+ * main area split into probation and protected LRU segments; an entry leaving the window
+ * only gets into the main area if it has been asked for more often than the entry it would
+ * evict, as estimated by a count-min sketch of recent queries that halves its counts every
+ * so often. A few very common queries then stay cached however many rare ones pass through.
+ *
+ * The search engine invalidates the entries of keywords whose occurrence lists change, and
+ * clears the cache when the index is replaced. A result being computed while the index
+ * changes is not cached (see epoch).
+ *
+ */
+public class QueryCache {
+
+	/**
+	 * Eviction policies.
+	 */
+	public enum Policy {
+		/**
+		 * Evicts the least recently used entry.
+		 */
+		LRU,
+		/**
+		 * Window TinyLFU: admits entries into the main area by estimated frequency.
+		 */
+		TINY_LFU
+	}
+
+	/**
+	 * Key of a cached result: normalized keywords and number of results.
+	 */
+	static final class Key {
+
+		/**
+		 * Lowercased keywords, in query order.
+		 */
+		final String[] terms;
+
+		/**
+		 * Number of results asked for.
+		 */
+		final int k;
+
+		private final int hash;
+
+		Key(String[] terms, int k) {
+			this.terms = terms;
+			this.k = k;
+			hash = 31*Arrays.hashCode(terms) + k;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)o;
+			return hash == other.hash && k == other.k && Arrays.equals(terms, other.terms);
+		}
+	}
+
+	/**
+	 * Most entries held.
+	 */
+	private final int capacity;
+
+	/**
+	 * Eviction policy.
+	 */
+	private final Policy policy;
+
+	/**
+	 * Entries in least recently used order. For LRU this holds every entry; for TINY_LFU it
+	 * is the window new entries go in.
+	 */
+	private final LinkedHashMap<Key,String[]> window;
+
+	/**
+	 * Main area entries used once since they left the window, in least recently used order.
+	 * Only used by TINY_LFU.
+	 */
+	private final LinkedHashMap<Key,String[]> probation;
+
+	/**
+	 * Main area entries used again since they left the window, in least recently used order.
+	 * Only used by TINY_LFU.
+	 */
+	private final LinkedHashMap<Key,String[]> protect;
+
+	/**
+	 * Most entries in the window, and in the protected segment.
+	 */
+	private final int windowCapacity, protectCapacity;
+
+	/**
+	 * Estimated frequencies of recent queries, null for LRU.
+	 */
+	private final FrequencySketch sketch;
+
+	/**
+	 * Number of times the index has changed under the cache; only changed under the lock.
+	 */
+	private volatile long epoch;
+
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity Most results held, at least 1
+	 * @param policy Eviction policy
+	 */
+	public QueryCache(int capacity, Policy policy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		window = new LinkedHashMap<Key,String[]>(16, 0.75f, true);
+		probation = new LinkedHashMap<Key,String[]>(16, 0.75f, true);
+		protect = new LinkedHashMap<Key,String[]>(16, 0.75f, true);
+		if (policy == Policy.TINY_LFU) {
+			// 1% window, and 80% of the main area protected, as in Caffeine
+			windowCapacity = Math.max(1, capacity/100);
+			protectCapacity = (capacity - windowCapacity)*8/10;
+			sketch = new FrequencySketch(capacity);
+		} else {
+			windowCapacity = capacity;
+			protectCapacity = 0;
+			sketch = null;
+		}
+	}
+
+	/**
+	 * Returns the cached result of a query.
+	 *
+	 * @param key Key of the query
+	 * @return Document names, best first, or null if not cached
+	 */
+	synchronized String[] get(Key key) {
+		if (sketch != null) {
+			sketch.increment(key);
+		}
+		String[] docs = window.get(key);
+		if (docs == null && sketch != null) {
+			docs = protect.get(key);
+			if (docs == null) {
+				docs = probation.remove(key);
+				if (docs != null) {
+					// used again in the main area, promote to protected
+					protect.put(key, docs);
+					if (protect.size() > protectCapacity) {
+						Key demoted = eldest(protect);
+						probation.put(demoted, protect.remove(demoted));
+					}
+				}
+			}
+		}
+		if (docs != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return docs;
+	}
+
+	/**
+	 * Returns the current epoch, to be passed to put with a result computed afterwards.
+	 *
+	 * @return Number of times the index has changed under the cache
+	 */
+	long epoch() {
+		return epoch;
+	}
+
+	/**
+	 * Caches the result of a query, unless the index has changed since the result's search
+	 * started, evicting an entry if the cache is full.
+	 *
+	 * @param key Key of the query
+	 * @param docs Document names, best first; not changed afterwards
+	 * @param started Epoch read before the search started
+	 */
+	synchronized void put(Key key, String[] docs, long started) {
+		if (started != epoch || window.containsKey(key) || probation.containsKey(key) || protect.containsKey(key)) {
+			return;
+		}
+		window.put(key, docs);
+		if (window.size() <= windowCapacity) {
+			return;
+		}
+		Key candidate = eldest(window);
+		String[] value = window.remove(candidate);
+		if (sketch == null || windowCapacity == capacity) {
+			evictions++;
+			return;
+		}
+		if (probation.size() + protect.size() < capacity - windowCapacity) {
+			probation.put(candidate, value);
+			return;
+		}
+		// the candidate gets in only if asked for more often than the victim
+		LinkedHashMap<Key,String[]> from = probation.isEmpty() ? protect : probation;
+		Key victim = eldest(from);
+		if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+			from.remove(victim);
+			probation.put(candidate, value);
+		}
+		evictions++;
+	}
+
+	/**
+	 * Drops the results of queries with any of the given keywords, and moves to the next
+	 * epoch. Called by the search engine after it publishes changed occurrence lists.
+	 *
+	 * @param keywords Keywords whose occurrence lists changed
+	 */
+	synchronized void invalidate(Set<String> keywords) {
+		epoch++;
+		invalidate(window, keywords);
+		invalidate(probation, keywords);
+		invalidate(protect, keywords);
+	}
+
+	/**
+	 * Drops the results in one segment with any of the given keywords.
+	 */
+	private void invalidate(LinkedHashMap<Key,String[]> segment, Set<String> keywords) {
+		Iterator<Key> iter = segment.keySet().iterator();
+		while (iter.hasNext()) {
+			for (String term : iter.next().terms) {
+				if (keywords.contains(term)) {
+					iter.remove();
+					invalidations++;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all results and moves to the next epoch. Hit and miss counts are kept.
+	 */
+	public synchronized void clear() {
+		epoch++;
+		invalidations += size();
+		window.clear();
+		probation.clear();
+		protect.clear();
+	}
+
+	/**
+	 * Returns the least recently used key of a segment.
+	 */
+	private static Key eldest(LinkedHashMap<Key,String[]> segment) {
+		return segment.keySet().iterator().next();
+	}
+
+	/**
+	 * Returns the eviction policy.
+	 *
+	 * @return Policy the cache was created with
+	 */
+	public Policy policy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the number of results cached.
+	 *
+	 * @return Number of entries
+	 */
+	public synchronized int size() {
+		return window.size() + probation.size() + protect.size();
+	}
+
+	/**
+	 * Returns the number of searches answered from the cache.
+	 *
+	 * @return Number of hits
+	 */
+	public synchronized long hitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of searches not answered from the cache.
+	 *
+	 * @return Number of misses
+	 */
+	public synchronized long missCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of searches answered from the cache.
+	 *
+	 * @return Hits over hits plus misses, 0 if there have been no searches
+	 */
+	public synchronized double hitRate() {
+		return hits + misses == 0 ? 0 : (double)hits / (hits + misses);
+	}
+
+	/**
+	 * Returns the number of results evicted to make room, or not admitted by TINY_LFU.
+	 *
+	 * @return Number of evictions
+	 */
+	public synchronized long evictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of results dropped because the index changed.
+	 *
+	 * @return Number of invalidated entries
+	 */
+	public synchronized long invalidationCount() {
+		return invalidations;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return policy + " cache: " + size() + "/" + capacity + " entries, " + hits + " hits, " + misses
+			+ " misses, " + evictions + " evictions, " + invalidations + " invalidations";
+	}
+
+	/**
+	 * Count-min sketch of 4-bit counters estimating how often each key has been asked for
+	 * recently. Every counter is halved once ten times the cache capacity have been counted,
+	 * so that old popularity fades.
+	 */
+	private static final class FrequencySketch {
+
+		/**
+		 * Counters, one row of width per hash function.
+		 */
+		private final byte[] counters;
+
+		/**
+		 * Width of a row, a power of 2.
+		 */
+		private final int width;
+
+		/**
+		 * Number of increments before counters are halved, and increments since last time.
+		 */
+		private final int sampleSize;
+		private int additions;
+
+		private static final int DEPTH = 4;
+
+		private static final int[] SEEDS = {0x97CB3127, 0xB1C2A6D3, 0x7F4A7C15, 0x5C6B9E4F};
+
+		FrequencySketch(int capacity) {
+			width = Integer.highestOneBit(Math.max(16, capacity - 1) * 2);
+			counters = new byte[DEPTH * width];
+			sampleSize = 10 * capacity;
+		}
+
+		/**
+		 * Returns the counter of a key in a row.
+		 */
+		private int index(Object key, int row) {
+			int h = key.hashCode() * SEEDS[row];
+			h ^= h >>> 16;
+			return row*width + (h & (width - 1));
+		}
+
+		/**
+		 * Counts one request for a key.
+		 */
+		void increment(Object key) {
+			for (int row = 0; row < DEPTH; row++) {
+				int i = index(key, row);
+				if (counters[i] < 15) {
+					counters[i]++;
+				}
+			}
+			if (++additions >= sampleSize) {
+				for (int i = 0; i < counters.length; i++) {
+					counters[i] >>= 1;
+				}
+				additions /= 2;
+			}
+		}
+
+		/**
+		 * Returns the estimated number of recent requests for a key.
+		 */
+		int frequency(Object key) {
+			int f = 15;
+			for (int row = 0; row < DEPTH; row++) {
+				f = Math.min(f, counters[index(key, row)]);
+			}
+			return f;
+		}
+	}
+}
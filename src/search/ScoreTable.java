@@ -0,0 +1,103 @@
+package search;
+
+/**
+ * This class is the running score total of each document matched by a query, in an array
+ * indexed by document ID. It is meant to be reused from one query to the next on the same
+ * thread, like a TermCounter: the arrays only grow with the index, and clearing empties only
+ * the entries the last query touched, so a query allocates nothing here.
+ *
+ */
+final class ScoreTable {
+
+	/**
+	 * Score total of each document; only those of matched documents are set.
+	 */
+	private float[] totals = new float[0];
+
+	/**
+	 * Whether each document is matched.
+	 */
+	private boolean[] seen = new boolean[0];
+
+	/**
+	 * IDs of the matched documents, in the order they were first added to.
+	 */
+	private int[] matched = new int[64];
+
+	/**
+	 * Number of matched documents.
+	 */
+	private int size;
+
+	/**
+	 * Empties the table, and makes room for document IDs below the given number.
+	 *
+	 * @param docs Number of documents in the index
+	 */
+	void reset(int docs) {
+		clear();
+		if (totals.length < docs) {
+			totals = new float[docs];
+			seen = new boolean[docs];
+		}
+	}
+
+	/**
+	 * Adds to the total of a document, which starts at 0.
+	 *
+	 * @param doc Document ID, below the number given to reset
+	 * @param score Score to add
+	 */
+	void add(int doc, float score) {
+		if (!seen[doc]) {
+			seen[doc] = true;
+			if (size == matched.length) {
+				int[] bigger = new int[size*2];
+				System.arraycopy(matched, 0, bigger, 0, size);
+				matched = bigger;
+			}
+			matched[size++] = doc;
+		}
+		totals[doc] += score;
+	}
+
+	/**
+	 * Returns the number of matched documents.
+	 *
+	 * @return Number of distinct documents added to
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a matched document.
+	 *
+	 * @param i Index of the document, from 0 to size()-1
+	 * @return Document ID
+	 */
+	int doc(int i) {
+		return matched[i];
+	}
+
+	/**
+	 * Returns the total of a document.
+	 *
+	 * @param doc Document ID
+	 * @return Score total of the document, 0 if not matched
+	 */
+	float total(int doc) {
+		return totals[doc];
+	}
+
+	/**
+	 * Clears the table, emptying only the entries of matched documents.
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			totals[matched[i]] = 0;
+			seen[matched[i]] = false;
+		}
+		size = 0;
+	}
+}
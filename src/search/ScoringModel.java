@@ -0,0 +1,236 @@
+package search;
+
+/**
+ * This class is a way of ranking the documents that match a query. A model scores each
+ * occurrence of a query keyword from three things: the keyword's weight, made once per
+ * search from the number of documents it occurs in; the occurrence's frequency; and the
+ * length factor of the document, made once per search for each document norm (see
+ * DocumentTable). A document's score is the sum of the scores of its occurrences, and
+ * documents are ranked by descending score, ties going to the document indexed first.
+ *
+ * FREQUENCY is the ranking of topK and top5search, by the highest frequency of any keyword,
+ * kept for compatibility; TF_IDF and BM25 favor rare keywords and shorter documents. Other
+ * models can be plugged in by extending this class.
+ *
+ */
+public abstract class ScoringModel {
+
+	/**
+	 * Ranks by the highest frequency of any keyword in a document, ties going to the keyword
+	 * that comes first in the query, as topK does.
+	 */
+	public static final ScoringModel FREQUENCY = new ScoringModel() {
+		public float weight(int docFreq, int docCount) {
+			return 1;
+		}
+
+		public float lengthFactor(int length, double averageLength) {
+			return 1;
+		}
+
+		public float score(int freq, float weight, float lengthFactor) {
+			return freq;
+		}
+
+		int[] top(PostingList[] lists, DocumentStats documents, int k) {
+			return TopKMerge.top(lists, k);
+		}
+	};
+
+	/**
+	 * Classic TF-IDF: the square root of the frequency, times the square of the inverse
+	 * document frequency 1 + ln(N/(df+1)), divided by the square root of the document length.
+	 */
+	public static final ScoringModel TF_IDF = new ScoringModel() {
+		public float weight(int docFreq, int docCount) {
+			double idf = 1 + Math.log((double)docCount / (docFreq + 1));
+			return (float)(idf * idf);
+		}
+
+		public float lengthFactor(int length, double averageLength) {
+			return (float)(1 / Math.sqrt(Math.max(1, length)));
+		}
+
+		public float score(int freq, float weight, float lengthFactor) {
+			return (float)Math.sqrt(freq) * weight * lengthFactor;
+		}
+	};
+
+	/**
+	 * BM25 with the usual parameters, k1 = 1.2 and b = 0.75.
+	 */
+	public static final ScoringModel BM25 = bm25(1.2, 0.75);
+
+	/**
+	 * Creates a model. Only subclasses create models.
+	 */
+	protected ScoringModel() {
+	}
+
+	/**
+	 * Returns BM25 with the given parameters. The weight of a keyword is its inverse document
+	 * frequency ln(1 + (N - df + 0.5)/(df + 0.5)), and an occurrence of frequency f scores
+	 * weight * f*(k1+1) / (f + k1*(1 - b + b*length/averageLength)).
+	 *
+	 * @param k1 How slowly the score of an occurrence levels off as its frequency grows, usually 1.2
+	 * @param b How much document length counts, from 0 (not at all) to 1, usually 0.75
+	 * @return The model
+	 */
+	public static ScoringModel bm25(final double k1, final double b) {
+		if (k1 < 0 || b < 0 || b > 1) {
+			throw new IllegalArgumentException("BM25 needs k1 >= 0 and 0 <= b <= 1");
+		}
+		return new ScoringModel() {
+			public float weight(int docFreq, int docCount) {
+				return (float)Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+			}
+
+			public float lengthFactor(int length, double averageLength) {
+				double relative = averageLength > 0 ? length / averageLength : 1;
+				return (float)(k1 * (1 - b + b*relative));
+			}
+
+			public float score(int freq, float weight, float lengthFactor) {
+				return (float)(weight * freq * (k1 + 1) / (freq + lengthFactor));
+			}
+		};
+	}
+
+	/**
+	 * Score table of each thread searching, reused from one search to the next.
+	 */
+	private static final ThreadLocal<ScoreTable> tables = new ThreadLocal<ScoreTable>() {
+		protected ScoreTable initialValue() {
+			return new ScoreTable();
+		}
+	};
+
+	/**
+	 * Returns the weight of a keyword, the same for all its occurrences.
+	 *
+	 * @param docFreq Number of documents the keyword occurs in
+	 * @param docCount Number of documents in the index
+	 * @return Weight passed to score
+	 */
+	public abstract float weight(int docFreq, int docCount);
+
+	/**
+	 * Returns the length factor of documents of a given length, the same for all occurrences
+	 * in them. Lengths are those of document norms, rounded down by less than an eighth.
+	 *
+	 * @param length Number of keyword occurrences in the document
+	 * @param averageLength Average number of keyword occurrences per document in the index
+	 * @return Length factor passed to score
+	 */
+	public abstract float lengthFactor(int length, double averageLength);
+
+	/**
+	 * Returns the score of an occurrence.
+	 *
+	 * @param freq Frequency of the keyword in the document
+	 * @param weight Weight of the keyword
+	 * @param lengthFactor Length factor of the document
+	 * @return Score added to the document's total
+	 */
+	public abstract float score(int freq, float weight, float lengthFactor);
+
+	/**
+	 * Ranks the documents holding any of the keywords of a query. The lists are read one
+	 * after the other, adding the score of each occurrence to its document's total, in this
+	 * thread's score table.
+	 *
+	 * @param lists Posting list of each keyword, in query order; null for a keyword not in the index
+	 * @param documents Statistics of the documents numbered in the lists, from the same generation
+	 * @param k Maximum number of documents to return
+	 * @return IDs of at most k documents, best first
+	 */
+	int[] top(PostingList[] lists, DocumentStats documents, int k) {
+		if (k <= 0) {
+			return new int[0];
+		}
+		// every document in the lists was numbered before the statistics were published
+		int size = documents.size;
+		int count = documents.count;
+		double average = documents.averageLength();
+		float[] factors = new float[256];
+		for (int n = 0; n < factors.length; n++) {
+			factors[n] = lengthFactor(DocumentTable.decodeLength(Math.min(n, 231)), average);
+		}
+		ScoreTable totals = tables.get();
+		totals.reset(size);
+		for (PostingList occs : lists) {
+			if (occs == null) {
+				continue;
+			}
+			float w = weight(occs.size(), count);
+			PostingIterator it = occs.iterator();
+			while (it.next()) {
+				int d = it.doc();
+				totals.add(d, score(it.frequency(), w, factors[documents.norm(d)]));
+			}
+		}
+		int[] top = best(totals, k);
+		totals.clear();
+		return top;
+	}
+
+	/**
+	 * Selects the k best of the matched documents, by descending total, then ascending ID.
+	 */
+	private static int[] best(ScoreTable totals, int k) {
+		// min-heap of the best k so far, worst at the root
+		int[] heap = new int[Math.min(k, totals.size())];
+		int n = 0;
+		for (int i = 0; i < totals.size(); i++) {
+			int d = totals.doc(i);
+			if (n < heap.length) {
+				heap[n] = d;
+				for (int j = n++; j > 0 && better(totals, heap[(j-1)/2], heap[j]); j = (j-1)/2) {
+					swap(heap, j, (j-1)/2);
+				}
+			} else if (better(totals, d, heap[0])) {
+				heap[0] = d;
+				siftDown(totals, heap, 0, n);
+			}
+		}
+		// take the worst off the root until empty, filling the result from the back
+		int[] top = new int[n];
+		for (int end = n; end > 0; end--) {
+			top[end-1] = heap[0];
+			heap[0] = heap[end-1];
+			siftDown(totals, heap, 0, end-1);
+		}
+		return top;
+	}
+
+	/**
+	 * Tells whether document a ranks above document b.
+	 */
+	private static boolean better(ScoreTable totals, int a, int b) {
+		float ta = totals.total(a), tb = totals.total(b);
+		return ta != tb ? ta > tb : a < b;
+	}
+
+	/**
+	 * Moves an entry down a min-heap of n entries to its place.
+	 */
+	private static void siftDown(ScoreTable totals, int[] heap, int i, int n) {
+		while (2*i + 1 < n) {
+			int c = 2*i + 1;
+			if (c + 1 < n && better(totals, heap[c], heap[c+1])) {
+				c++;
+			}
+			if (!better(totals, heap[i], heap[c])) {
+				return;
+			}
+			swap(heap, i, c);
+			i = c;
+		}
+	}
+
+	private static void swap(int[] heap, int i, int j) {
+		int h = heap[i];
+		heap[i] = heap[j];
+		heap[j] = h;
+	}
+}
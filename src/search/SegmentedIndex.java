@@ -0,0 +1,678 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is a keywords index made of segments, for adding documents at a high rate.
+ * New documents go into a small in-memory segment (the memtable), where adding a document
+ * only touches the short lists of its own keywords. Once the memtable holds FLUSH_DOCS
+ * documents it is frozen and written out, in the background, as an immutable index file
+ * (see IndexFile) in the segments directory. A background merger keeps the number of
+ * segments down: whenever FANOUT neighbouring segments are in the same size tier, they are
+ * merged into one segment of the next tier.
+ *
+ * Segments hold consecutive ranges of document IDs, oldest first, and merges only join
+ * neighbours, so a keyword's occurrences across all segments, taken in segment order, are in
+ * the same order as in a single index. A search fans out over the segments, passing each
+ * keyword's list in each segment to the same top-k merge as LittleSearchEngine.topK, and gets
+ * the same results as LittleSearchEngine would for the same documents.
+ *
+ * Searches run without locking, on the set of segments current when they start. Documents
+ * are added one at a time; a search sees a document once all its keywords have been added.
+ *
+ * Each segment file holds the names and lengths of its range of documents, and a manifest
+ * file in the segments directory lists the segments on disk, oldest first; it is replaced
+ * whole each time they change. An index created on a directory that has a manifest opens its
+ * segments again, and carries on numbering documents after theirs. Documents still in the
+ * memtable when the process ends without close are lost.
+ *
+ * This index stands on its own, beside LittleSearchEngine: it has its own documents and
+ * files, and only adds documents, it does not remove or update them.
+ *
+ */
+public class SegmentedIndex {
+
+	/**
+	 * Number of documents in the memtable when it is flushed.
+	 */
+	static final int FLUSH_DOCS = 1000;
+
+	/**
+	 * Number of neighbouring segments of the same tier merged at once.
+	 */
+	static final int FANOUT = 4;
+
+	/**
+	 * Size in bytes of the segments in the lowest tier. A segment is in tier t if its size is
+	 * at least TIER_BYTES*FANOUT^t and less than FANOUT times that.
+	 */
+	static final long TIER_BYTES = 1 << 16;
+
+	/**
+	 * Name of the manifest file, in the segments directory.
+	 */
+	static final String MANIFEST = "segments";
+
+	/**
+	 * One segment of the index: either a frozen memtable waiting to be written, or an index file.
+	 */
+	private static final class Segment {
+
+		/**
+		 * Occurrence lists of a frozen memtable, null for a segment on disk.
+		 */
+		final Map<String,PostingList> lists;
+
+		/**
+		 * Opened index file, null for a segment in memory.
+		 */
+		final IndexFile file;
+
+		/**
+		 * Index file of the segment, null for a segment in memory.
+		 */
+		final File path;
+
+		/**
+		 * First document of the segment, and the end of its documents.
+		 */
+		final int first, end;
+
+		Segment(Map<String,PostingList> lists, int first, int end) {
+			this.lists = lists;
+			this.file = null;
+			this.path = null;
+			this.first = first;
+			this.end = end;
+		}
+
+		Segment(File path)
+		throws IOException {
+			this.lists = null;
+			this.file = IndexFile.open(path.getPath());
+			this.path = path;
+			first = file.firstDocument;
+			end = first + file.documents.length;
+		}
+
+		/**
+		 * Returns the occurrence list of a keyword in this segment.
+		 */
+		PostingList postings(String kw) {
+			return file != null ? file.postings(kw) : lists.get(kw);
+		}
+
+		/**
+		 * Returns the size tier of the segment, -1 for a segment in memory.
+		 */
+		int tier() {
+			if (path == null) {
+				return -1;
+			}
+			int t = 0;
+			for (long limit = TIER_BYTES*FANOUT; path.length() >= limit && t < 30; limit *= FANOUT) {
+				t++;
+			}
+			return t;
+		}
+	}
+
+	/**
+	 * The index as seen by a search: the segments, oldest first, and the memtable.
+	 */
+	private static final class Snapshot {
+
+		/**
+		 * Frozen and written segments, oldest first.
+		 */
+		final Segment[] segments;
+
+		/**
+		 * Lists of the documents added since the last freeze. Lists are replaced, never changed.
+		 */
+		final ConcurrentHashMap<String,PostingList> memtable;
+
+		/**
+		 * Documents with IDs below this have all their keywords in the memtable.
+		 */
+		final int visible;
+
+		Snapshot(Segment[] segments, ConcurrentHashMap<String,PostingList> memtable, int visible) {
+			this.segments = segments;
+			this.memtable = memtable;
+			this.visible = visible;
+		}
+	}
+
+	/**
+	 * Picks keywords out of documents, with the noise words of this index.
+	 */
+	private final LittleSearchEngine parser;
+
+	/**
+	 * Directory the segment files are written in.
+	 */
+	private final File dir;
+
+	/**
+	 * Table of the documents in all segments.
+	 */
+	final DocumentTable documents;
+
+	/**
+	 * The current snapshot.
+	 */
+	private volatile Snapshot current;
+
+	/**
+	 * Number of documents in the memtable.
+	 */
+	private int memtableDocs;
+
+	/**
+	 * First document of the memtable.
+	 */
+	private int memtableFirst;
+
+	/**
+	 * Number of the next segment file.
+	 */
+	private int nextFile;
+
+	/**
+	 * Lock held while the snapshot is replaced.
+	 */
+	private final Object writer = new Object();
+
+	/**
+	 * Single background thread that writes frozen memtables and merges segments, in order.
+	 */
+	private final ExecutorService background;
+
+	/**
+	 * First failure of a background flush or merge, an IOException or RuntimeException,
+	 * reported by the next call that changes the index, by flush, and by close.
+	 */
+	private volatile Exception failure;
+
+	/**
+	 * Creates an index whose segments are written in the given directory. If the directory
+	 * has a manifest, the segments it lists are opened, and segment files it does not list,
+	 * left by a flush or merge that did not finish, are deleted; otherwise the index is empty.
+	 *
+	 * @param segmentsDir Directory for the segment files, created if needed
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 * @throws IOException If the manifest or a segment it lists cannot be read, or they do not match
+	 */
+	public SegmentedIndex(String segmentsDir, String noiseWordsFile)
+	throws IOException {
+		dir = new File(segmentsDir);
+		dir.mkdirs();
+		parser = new LittleSearchEngine();
+		parser.loadNoiseWords(noiseWordsFile);
+		Segment[] segments = open();
+		int docs = segments.length == 0 ? 0 : segments[segments.length-1].end;
+		String[] names = new String[docs];
+		int[] lengths = new int[docs];
+		for (Segment s : segments) {
+			System.arraycopy(s.file.documents, 0, names, s.first, s.end - s.first);
+			System.arraycopy(s.file.lengths, 0, lengths, s.first, s.end - s.first);
+		}
+		documents = new DocumentTable(names, lengths);
+		memtableFirst = docs;
+		current = new Snapshot(segments, new ConcurrentHashMap<String,PostingList>(), docs);
+		background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "segment merger");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Opens the segments listed in the manifest, and deletes the segment files it does not list.
+	 *
+	 * @return Segments, oldest first; none if there is no manifest
+	 * @throws IOException If a segment cannot be read, or the segments do not hold consecutive documents
+	 */
+	private Segment[] open()
+	throws IOException {
+		File manifest = new File(dir, MANIFEST);
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		HashSet<String> listed = new HashSet<String>();
+		if (manifest.exists()) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), IndexFile.UTF8));
+			try {
+				for (String name = in.readLine(); name != null; name = in.readLine()) {
+					Segment s = new Segment(new File(dir, name));
+					int first = segments.isEmpty() ? 0 : segments.get(segments.size()-1).end;
+					if (s.first != first) {
+						throw new IOException(s.path + " does not follow the segment before it in " + manifest);
+					}
+					segments.add(s);
+					listed.add(name);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		// number new files after all those in the directory, and drop those not listed
+		for (String name : dir.list()) {
+			if (name.startsWith("segment-") && name.endsWith(".idx")) {
+				try {
+					nextFile = Math.max(nextFile, Integer.parseInt(name.substring(8, name.length() - 4)) + 1);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (!listed.contains(name)) {
+					new File(dir, name).delete();
+				}
+			}
+		}
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	/**
+	 * Replaces the manifest with the list of the given segments on disk. It is written under
+	 * a temporary name and then renamed, so it always lists segments that are all there.
+	 *
+	 * @param segments Segments, oldest first; those on disk come before those in memory
+	 * @throws IOException If the manifest cannot be written
+	 */
+	private void writeManifest(Segment[] segments)
+	throws IOException {
+		File tmp = new File(dir, MANIFEST + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), IndexFile.UTF8);
+		try {
+			for (Segment s : segments) {
+				if (s.path != null) {
+					out.write(s.path.getName());
+					out.write('\n');
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds a document to the memtable. Each of its keywords' memtable lists is replaced by a
+	 * copy with the occurrence inserted in order; the lists are at most FLUSH_DOCS long, so the
+	 * cost does not grow with the size of the index.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws IOException If the document file is not found on disk, or a background flush or merge failed
+	 * @throws IllegalArgumentException If the document is already in the index
+	 */
+	public void addDocument(String docFile)
+	throws IOException {
+		TermCounter.Counts kws = parser.countKeyWords(docFile);
+		synchronized (writer) {
+			checkFailure();
+			if (documents.find(docFile) >= 0) {
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			}
+			int id = documents.id(docFile);
+			documents.setLength(id, kws.length);
+			Snapshot snap = current;
+			for (int i = 0; i < kws.size(); i++) {
+				PostingList occs = snap.memtable.get(kws.terms[i]);
+				occs = occs == null ? new PostingList() : occs.copy();
+				occs.insert(id, kws.counts[i]);
+				snap.memtable.put(kws.terms[i], occs);
+			}
+			current = new Snapshot(snap.segments, snap.memtable, id + 1);
+			if (++memtableDocs >= FLUSH_DOCS) {
+				freeze();
+			}
+		}
+	}
+
+	/**
+	 * Freezes the memtable into a segment, and has it written out in the background.
+	 */
+	private void freeze() {
+		Snapshot snap = current;
+		if (snap.memtable.isEmpty()) {
+			return;
+		}
+		final Segment frozen = new Segment(snap.memtable, memtableFirst, documents.size());
+		Segment[] segments = Arrays.copyOf(snap.segments, snap.segments.length + 1);
+		segments[segments.length-1] = frozen;
+		current = new Snapshot(segments, new ConcurrentHashMap<String,PostingList>(), snap.visible);
+		memtableDocs = 0;
+		memtableFirst = frozen.end;
+		final File path = new File(dir, "segment-" + (nextFile++) + ".idx");
+		final DocumentStats stats = documents.stats();
+		background.submit(new Runnable() {
+			public void run() {
+				try {
+					boolean written = false;
+					try {
+						IndexFile.write(path.getPath(), frozen.lists, stats, frozen.first, frozen.end, parser.noiseWords);
+						written = true;
+					} finally {
+						if (!written) {
+							path.delete();
+						}
+					}
+					replace(new Segment[] {frozen}, new Segment(path));
+					mergeTiers();
+				} catch (IOException e) {
+					fail(e);
+				} catch (RuntimeException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Merges runs of FANOUT neighbouring segments of the same tier, until there are none.
+	 * Runs on the background thread, which is the only one that removes segments.
+	 *
+	 * @throws IOException If a merged segment cannot be written
+	 */
+	private void mergeTiers()
+	throws IOException {
+		for (Segment[] run = findRun(); run != null; run = findRun()) {
+			File path;
+			synchronized (writer) {
+				path = new File(dir, "segment-" + (nextFile++) + ".idx");
+			}
+			boolean merged = false;
+			try {
+				merge(run, path);
+				merged = true;
+			} finally {
+				if (!merged) {
+					path.delete();
+				}
+			}
+			replace(run, new Segment(path));
+			for (Segment s : run) {
+				// searches still reading an old segment keep its mapping
+				s.path.delete();
+			}
+		}
+	}
+
+	/**
+	 * Finds the oldest run of FANOUT neighbouring segments on disk in the same tier.
+	 *
+	 * @return The segments of the run, or null if there is none
+	 */
+	private Segment[] findRun() {
+		Segment[] segments = current.segments;
+		int start = 0;
+		for (int i = 1; i <= segments.length; i++) {
+			if (i < segments.length && segments[i].tier() == segments[start].tier()) {
+				continue;
+			}
+			if (segments[start].tier() >= 0 && i - start >= FANOUT) {
+				return Arrays.copyOfRange(segments, start, start + FANOUT);
+			}
+			start = i;
+		}
+		return null;
+	}
+
+	/**
+	 * Merges neighbouring segments into one segment file. The dictionaries of the segments are
+	 * read side by side, in dictionary order, and each keyword's lists are joined and written
+	 * before the next keyword is read, as SpimiIndexer merges its runs, so only one keyword's
+	 * lists are in memory at a time.
+	 *
+	 * @param run Neighbouring segments on disk, oldest first
+	 * @param path Segment file to write
+	 * @throws IOException If the segment file cannot be written
+	 */
+	private void merge(Segment[] run, File path)
+	throws IOException {
+		IndexFile.Writer out = new IndexFile.Writer(path.getPath(), documents.stats(), 
+				run[0].first, run[run.length-1].end, parser.noiseWords);
+		try {
+			// segments ordered by current key, then by age, so lists join in document order
+			PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(run.length, new Comparator<Cursor>() {
+				public int compare(Cursor a, Cursor b) {
+					int c = IndexFile.KEY_ORDER.compare(a.key, b.key);
+					return c != 0 ? c : a.order - b.order;
+				}
+			});
+			for (int s = 0; s < run.length; s++) {
+				Cursor c = new Cursor(run[s].file, s);
+				if (c.next()) {
+					heap.add(c);
+				}
+			}
+			ArrayList<Cursor> same = new ArrayList<Cursor>();
+			ArrayList<PostingList> lists = new ArrayList<PostingList>();
+			while (!heap.isEmpty()) {
+				same.clear();
+				lists.clear();
+				same.add(heap.poll());
+				byte[] key = same.get(0).key;
+				while (!heap.isEmpty() && Arrays.equals(heap.peek().key, key)) {
+					same.add(heap.poll());
+				}
+				for (Cursor c : same) {
+					lists.add(c.file.postings(c.term));
+				}
+				out.add(key, PostingList.join(lists));
+				for (Cursor c : same) {
+					if (c.next()) {
+						heap.add(c);
+					}
+				}
+			}
+			out.finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the terms of a segment file in dictionary order.
+	 */
+	private static final class Cursor {
+
+		final IndexFile file;
+
+		/**
+		 * Position of the segment in the run being merged.
+		 */
+		final int order;
+
+		/**
+		 * Current term number, and its key.
+		 */
+		int term = -1;
+
+		byte[] key;
+
+		Cursor(IndexFile file, int order) {
+			this.file = file;
+			this.order = order;
+		}
+
+		/**
+		 * Moves to the next term.
+		 *
+		 * @return False past the last term
+		 */
+		boolean next() {
+			if (++term == file.termCount) {
+				return false;
+			}
+			key = file.key(term);
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces a run of neighbouring segments by one segment holding the same documents, and
+	 * writes the manifest.
+	 *
+	 * @param run Segments to replace, oldest first; they must still be in the index
+	 * @param segment Segment replacing them
+	 * @throws IOException If the manifest cannot be written; the segments are replaced anyway
+	 */
+	private void replace(Segment[] run, Segment segment)
+	throws IOException {
+		synchronized (writer) {
+			Snapshot snap = current;
+			Segment[] segments = snap.segments;
+			int at = 0;
+			while (segments[at] != run[0]) {
+				at++;
+			}
+			Segment[] next = new Segment[segments.length - run.length + 1];
+			System.arraycopy(segments, 0, next, 0, at);
+			next[at] = segment;
+			System.arraycopy(segments, at + run.length, next, at + 1, segments.length - at - run.length);
+			current = new Snapshot(next, snap.memtable, snap.visible);
+			writeManifest(next);
+		}
+	}
+
+	/**
+	 * Writes out the memtable, and waits for all pending flushes and merges to finish.
+	 *
+	 * @throws IOException If a flush or merge failed
+	 */
+	public void flush()
+	throws IOException {
+		Future<?> done;
+		synchronized (writer) {
+			freeze();
+			done = background.submit(new Runnable() {
+				public void run() {
+				}
+			});
+		}
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while flushing");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Flushes the index and stops the background thread. The segment files are left in the directory.
+	 *
+	 * @throws IOException If a flush or merge failed
+	 */
+	public void close()
+	throws IOException {
+		try {
+			flush();
+		} finally {
+			background.shutdown();
+		}
+	}
+
+	/**
+	 * Records the first failure of the background thread.
+	 */
+	private void fail(Exception e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Throws the failure of the background thread, if there was one. A RuntimeException is
+	 * thrown as the cause of an IOException.
+	 */
+	private void checkFailure()
+	throws IOException {
+		Exception e = failure;
+		if (e instanceof IOException) {
+			throw (IOException)e;
+		}
+		if (e != null) {
+			throw new IOException("segment flush or merge failed", e);
+		}
+	}
+
+	/**
+	 * Returns the number of segments, counting frozen memtables not written yet.
+	 *
+	 * @return Number of segments, not counting the memtable
+	 */
+	public int segmentCount() {
+		return current.segments.length;
+	}
+
+	/**
+	 * Search result for any number of keywords, with the same ranking as LittleSearchEngine.topK.
+	 * Keywords are matched in lower case.
+	 *
+	 * @param terms Keywords to search for, in order of preference
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of at most k documents, best first; empty if there are no matching documents
+	 */
+	public ArrayList<String> topK(List<String> terms, int k) {
+		Snapshot snap = current;
+		int fan = snap.segments.length + 1;
+		// each keyword's list in each segment, oldest first, then in the memtable
+		String[] normal = LittleSearchEngine.queryKeyWords(terms);
+		PostingList[] lists = new PostingList[normal.length * fan];
+		for (int t = 0; t < normal.length; t++) {
+			String kw = normal[t];
+			if (kw == null) {
+				continue;
+			}
+			for (int s = 0; s < snap.segments.length; s++) {
+				lists[t*fan + s] = snap.segments[s].postings(kw);
+			}
+			lists[t*fan + fan-1] = visibleOnly(snap.memtable.get(kw), snap.visible);
+		}
+		int[] docs = TopKMerge.top(lists, k);
+		ArrayList<String> fin = new ArrayList<String>(docs.length);
+		for (int d : docs) {
+			fin.add(documents.name(d));
+		}
+		return fin;
+	}
+
+	/**
+	 * Leaves out of a memtable list the documents still being added.
+	 *
+	 * @param occs Memtable list, or null
+	 * @param visible Documents with IDs below this are fully added
+	 * @return The list itself if all its documents are fully added, else a copy without the others
+	 */
+	private static PostingList visibleOnly(PostingList occs, int visible) {
+		if (occs == null) {
+			return null;
+		}
+		boolean hidden = false;
+		PostingIterator it = occs.iterator();
+		while (!hidden && it.next()) {
+			hidden = it.doc() >= visible;
+		}
+		if (!hidden) {
+			return occs;
+		}
+		PostingList c = new PostingList(occs.size());
+		it = occs.iterator();
+		while (it.next()) {
+			if (it.doc() < visible) {
+				c.add(it.doc(), it.frequency());
+			}
+		}
+		return c;
+	}
+}
@@ -0,0 +1,349 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This class builds an index file from documents too many for their posting lists to fit in
+ * memory, by single-pass in-memory indexing (SPIMI). Occurrences are appended to posting lists
+ * in memory until the lists reach a memory budget; the lists are then sorted, and spilled to
+ * a run file in dictionary order, and memory starts over empty. Once all documents are in,
+ * the runs are merged term by term into the index file, a k-way merge reading each run in
+ * order, so only the current term of each run is in memory. If there are more than FAN_IN
+ * runs, groups of FAN_IN runs are first merged into bigger runs.
+ *
+ * Documents are numbered in the order they are added, so each run holds a range of document
+ * IDs after those of the runs before it. Within a list, occurrences are in descending order
+ * of frequency, then ascending document ID, the order of a list built by makeIndex; merging
+ * runs keeps that order, so the index is the same as the one makeIndex builds.
+ *
+ * Memory used is the budget, plus one posting list per run being merged, plus two things
+ * that grow with the corpus and are not bounded by the budget: the documents table, which
+ * holds each document's name and length, and the merged list of the term being written,
+ * which is joined whole and uncompressed in memory, so the longest list of the corpus has to
+ * fit in memory once.
+ *
+ */
+final class SpimiIndexer {
+
+	/**
+	 * Most runs merged at once.
+	 */
+	static final int FAN_IN = 64;
+
+	/**
+	 * Estimated bytes of memory taken by a keyword in the lists besides its occurrences:
+	 * map entry, String, PostingList, array headers.
+	 */
+	static final int TERM_OVERHEAD = 120;
+
+	/**
+	 * Most bytes the lists in memory may take before they are spilled.
+	 */
+	private final long budget;
+
+	/**
+	 * Directory the run files are written in.
+	 */
+	private final File dir;
+
+	/**
+	 * Table numbering the documents added.
+	 */
+	final DocumentTable documents = new DocumentTable();
+
+	/**
+	 * Posting lists of the documents added since the last spill.
+	 */
+	private HashMap<String,PostingList> lists = new HashMap<String,PostingList>(1000);
+
+	/**
+	 * Estimated bytes taken by lists.
+	 */
+	private long used;
+
+	/**
+	 * Run files written, in order.
+	 */
+	private final ArrayList<File> runs = new ArrayList<File>();
+
+	/**
+	 * Creates an indexer.
+	 *
+	 * @param budget Most bytes of memory the posting lists may take
+	 * @param dir Directory to write run files in
+	 */
+	SpimiIndexer(long budget, File dir) {
+		this.budget = budget;
+		this.dir = dir;
+	}
+
+	/**
+	 * Adds the keywords of a document, spilling the lists if they reach the budget. A document
+	 * without keywords is not numbered.
+	 *
+	 * @param kws Keywords counted in a document
+	 * @throws IOException If a run file cannot be written
+	 */
+	void add(TermCounter.Counts kws)
+	throws IOException {
+		if (kws.size() == 0) {
+			return;
+		}
+		int id = documents.id(kws.name);
+		documents.setLength(id, kws.length);
+		for (int i = 0; i < kws.size(); i++) {
+			PostingList occs = lists.get(kws.terms[i]);
+			if (occs == null) {
+				occs = new PostingList();
+				lists.put(kws.terms[i], occs);
+				used += TERM_OVERHEAD + 2L*kws.terms[i].length() + occs.memory();
+			}
+			long before = occs.memory();
+			occs.add(id, kws.counts[i]);
+			used += occs.memory() - before;
+		}
+		if (used >= budget) {
+			spill();
+		}
+	}
+
+	/**
+	 * Sorts the lists in memory and writes them to a new run file, in dictionary order.
+	 */
+	private void spill()
+	throws IOException {
+		if (lists.isEmpty()) {
+			return;
+		}
+		byte[][] keys = new byte[lists.size()][];
+		int n = 0;
+		for (String kw : lists.keySet()) {
+			keys[n++] = kw.getBytes(IndexFile.UTF8);
+		}
+		Arrays.sort(keys, IndexFile.KEY_ORDER);
+		File run = File.createTempFile("lse-run", ".tmp", dir);
+		runs.add(run);
+		RunWriter out = new RunWriter(run);
+		try {
+			for (byte[] key : keys) {
+				PostingList occs = lists.remove(new String(key, IndexFile.UTF8));
+				occs.sort();
+				out.add(key, occs);
+			}
+		} finally {
+			out.close();
+		}
+		lists = new HashMap<String,PostingList>(1000);
+		used = 0;
+	}
+
+	/**
+	 * Merges everything added into an index file.
+	 *
+	 * @param indexFile Name of the index file to write
+	 * @param noiseWords Noise words the documents were loaded with
+	 * @throws IOException If a run file cannot be read, or the index file cannot be written
+	 */
+	void finish(String indexFile, NoiseWordSet noiseWords)
+	throws IOException {
+		if (runs.isEmpty()) {
+			// everything fit in memory
+			for (PostingList occs : lists.values()) {
+				occs.sort();
+			}
+			IndexFile.write(indexFile, lists, documents.stats(), noiseWords);
+			lists = new HashMap<String,PostingList>();
+			return;
+		}
+		spill();
+		// merge in stages until one merge can take all runs
+		while (runs.size() > FAN_IN) {
+			List<File> group = new ArrayList<File>(runs.subList(0, FAN_IN));
+			File run = File.createTempFile("lse-run", ".tmp", dir);
+			boolean merged = false;
+			try {
+				RunWriter out = new RunWriter(run);
+				try {
+					merge(group, out);
+				} finally {
+					out.close();
+				}
+				merged = true;
+			} finally {
+				// a run left half written is not in runs, so close would not delete it
+				if (!merged) {
+					run.delete();
+				}
+			}
+			// the merged run holds the lowest documents, so it goes first
+			runs.subList(0, FAN_IN).clear();
+			runs.add(0, run);
+			for (File f : group) {
+				f.delete();
+			}
+		}
+		final IndexFile.Writer out = new IndexFile.Writer(indexFile, documents.stats(), noiseWords);
+		try {
+			merge(runs, new Sink() {
+				void add(byte[] key, PostingList occs)
+				throws IOException {
+					out.add(key, occs);
+				}
+			});
+			out.finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Deletes the run files.
+	 */
+	void close() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Merges runs, in document order, term by term into a writer.
+	 */
+	private static void merge(List<File> files, Sink out)
+	throws IOException {
+		final RunReader[] readers = new RunReader[files.size()];
+		try {
+			// runs ordered by current key, then by position, so lists join in document order
+			PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>(readers.length, new Comparator<RunReader>() {
+				public int compare(RunReader a, RunReader b) {
+					int c = IndexFile.KEY_ORDER.compare(a.key, b.key);
+					return c != 0 ? c : a.order - b.order;
+				}
+			});
+			for (int r = 0; r < readers.length; r++) {
+				readers[r] = new RunReader(files.get(r), r);
+				if (readers[r].next()) {
+					heap.add(readers[r]);
+				}
+			}
+			ArrayList<RunReader> same = new ArrayList<RunReader>();
+			while (!heap.isEmpty()) {
+				same.clear();
+				same.add(heap.poll());
+				byte[] key = same.get(0).key;
+				while (!heap.isEmpty() && Arrays.equals(heap.peek().key, key)) {
+					same.add(heap.poll());
+				}
+				ArrayList<PostingList> lists = new ArrayList<PostingList>(same.size());
+				for (RunReader r : same) {
+					lists.add(r.occs);
+				}
+				out.add(key, PostingList.join(lists));
+				for (RunReader r : same) {
+					if (r.next()) {
+						heap.add(r);
+					}
+				}
+			}
+		} finally {
+			for (RunReader r : readers) {
+				if (r != null) {
+					r.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes posting lists in dictionary order.
+	 */
+	private static abstract class Sink {
+		abstract void add(byte[] key, PostingList occs)
+		throws IOException;
+	}
+
+	/**
+	 * Writes a run file: for each keyword, in dictionary order, the key length and bytes,
+	 * then the number of occurrences, the encoded length and the encoded occurrences.
+	 */
+	private static final class RunWriter extends Sink {
+
+		private final DataOutputStream out;
+
+		RunWriter(File run)
+		throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+		}
+
+		void add(byte[] key, PostingList occs)
+		throws IOException {
+			ByteBuffer data = occs.encoded();
+			out.writeInt(key.length);
+			out.write(key);
+			out.writeInt(occs.size());
+			out.writeInt(data.remaining());
+			byte[] b = new byte[data.remaining()];
+			data.get(b);
+			out.write(b);
+		}
+
+		void close()
+		throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a run file one keyword at a time.
+	 */
+	private static final class RunReader {
+
+		private final DataInputStream in;
+
+		/**
+		 * Position of the run among those merged.
+		 */
+		final int order;
+
+		/**
+		 * Current keyword, and its compressed list.
+		 */
+		byte[] key;
+		PostingList occs;
+
+		RunReader(File run, int order)
+		throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			this.order = order;
+		}
+
+		/**
+		 * Reads the next keyword.
+		 *
+		 * @return True if there is one, false at the end of the run
+		 */
+		boolean next()
+		throws IOException {
+			int len;
+			try {
+				len = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			key = new byte[len];
+			in.readFully(key);
+			int size = in.readInt();
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			occs = new PostingList(size, ByteBuffer.wrap(b));
+			return true;
+		}
+
+		void close()
+		throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * This class counts the keywords of one document at a time. Keywords are looked up by their
+ * characters in an open addressing hash table, with linear probing, holding primitive int
+ * counts, so a keyword seen again in the document costs no allocation at all; a String is
+ * only made the first time a keyword is seen in the document. The table is cleared between
+ * documents, touching only the slots that were used, and kept for the next one, so each
+ * worker loading documents needs only one counter.
+ *
+ * Once a document is counted, its keywords and counts are taken out as a Counts, which is
+ * what the merge step reads.
+ *
+ */
+final class TermCounter {
+
+	/**
+	 * Keywords of a counted document, with the number of times each occurs. Owned by whoever
+	 * took it from the counter.
+	 */
+	static final class Counts {
+
+		/**
+		 * Name of the document.
+		 */
+		final String name;
+
+		/**
+		 * Distinct keywords of the document, in the order first seen.
+		 */
+		final String[] terms;
+
+		/**
+		 * Frequency of each keyword in the document, by position in terms.
+		 */
+		final int[] counts;
+
+		/**
+		 * Total of the counts: the number of keyword occurrences in the document.
+		 */
+		final int length;
+
+		Counts(String name, String[] terms, int[] counts, int length) {
+			this.name = name;
+			this.terms = terms;
+			this.counts = counts;
+			this.length = length;
+		}
+
+		/**
+		 * Returns the number of distinct keywords.
+		 *
+		 * @return Number of keywords of the document
+		 */
+		int size() {
+			return terms.length;
+		}
+	}
+
+	/**
+	 * Keyword in each slot, null for an empty slot.
+	 */
+	private String[] keys;
+
+	/**
+	 * Hash code of the keyword in each slot, the same as its String hash code.
+	 */
+	private int[] hashes;
+
+	/**
+	 * Count of the keyword in each slot.
+	 */
+	private int[] counts;
+
+	/**
+	 * Slots in use, in the order their keywords were first seen.
+	 */
+	private int[] used;
+
+	/**
+	 * Number of distinct keywords counted.
+	 */
+	private int size;
+
+	/**
+	 * Number of keyword occurrences counted.
+	 */
+	private int length;
+
+	/**
+	 * Creates an empty counter with room for the given number of keywords before it grows.
+	 *
+	 * @param expected Number of distinct keywords expected per document
+	 */
+	TermCounter(int expected) {
+		int cap = 16;
+		while (cap < expected*2) {
+			cap *= 2;
+		}
+		keys = new String[cap];
+		hashes = new int[cap];
+		counts = new int[cap];
+		used = new int[cap/2 + 1];
+	}
+
+	/**
+	 * Counts one occurrence of a keyword.
+	 *
+	 * @param word Characters of the keyword, already lowercased
+	 * @param off Index of the first character
+	 * @param len Number of characters
+	 */
+	void add(char[] word, int off, int len) {
+		int h = 0;
+		for (int i = off; i < off + len; i++) {
+			h = 31*h + word[i];
+		}
+		length++;
+		int mask = keys.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		for (String k = keys[slot]; k != null; k = keys[slot]) {
+			if (hashes[slot] == h && equal(k, word, off, len)) {
+				counts[slot]++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = new String(word, off, len);
+		hashes[slot] = h;
+		counts[slot] = 1;
+		used[size++] = slot;
+		if (size*2 > keys.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * Counts the keywords of part of a document, counted by another counter, as if they had
+	 * been counted here. Keywords not seen yet come after those already counted, in the order
+	 * of the part, so counting the parts of a document in order gives the keywords in the
+	 * same order as counting the whole document.
+	 *
+	 * @param part Keywords and counts of part of the document
+	 */
+	void addAll(Counts part) {
+		for (int i = 0; i < part.size(); i++) {
+			add(part.terms[i], part.counts[i]);
+		}
+		length += part.length;
+	}
+
+	/**
+	 * Adds a count to a keyword, reusing its String if the keyword is new.
+	 */
+	private void add(String term, int count) {
+		int h = term.hashCode();
+		int mask = keys.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		for (String k = keys[slot]; k != null; k = keys[slot]) {
+			if (hashes[slot] == h && k.equals(term)) {
+				counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = term;
+		hashes[slot] = h;
+		counts[slot] = count;
+		used[size++] = slot;
+		if (size*2 > keys.length) {
+			grow();
+		}
+	}
+
+	/**
+	 * Tells whether a keyword has the given characters.
+	 */
+	private static boolean equal(String k, char[] word, int off, int len) {
+		if (k.length() != len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (k.charAt(i) != word[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the table.
+	 */
+	private void grow() {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes, oldCounts = counts;
+		keys = new String[oldKeys.length*2];
+		hashes = new int[keys.length];
+		counts = new int[keys.length];
+		used = Arrays.copyOf(used, keys.length/2 + 1);
+		int mask = keys.length - 1;
+		for (int i = 0; i < size; i++) {
+			int from = used[i];
+			int h = oldHashes[from];
+			int slot = (h ^ (h >>> 16)) & mask;
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[from];
+			hashes[slot] = h;
+			counts[slot] = oldCounts[from];
+			used[i] = slot;
+		}
+	}
+
+	/**
+	 * Takes out the keywords counted so far, and clears the counter for the next document.
+	 *
+	 * @param name Name of the counted document
+	 * @return Keywords and counts of the document
+	 */
+	Counts take(String name) {
+		String[] terms = new String[size];
+		int[] freqs = new int[size];
+		for (int i = 0; i < size; i++) {
+			int slot = used[i];
+			terms[i] = keys[slot];
+			freqs[i] = counts[slot];
+		}
+		Counts c = new Counts(name, terms, freqs, length);
+		clear();
+		return c;
+	}
+
+	/**
+	 * Clears the counter, emptying only the slots in use.
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			keys[used[i]] = null;
+		}
+		size = 0;
+		length = 0;
+	}
+}
@@ -0,0 +1,90 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class finds the top documents for a set of keywords, where documents are ranked by
+ * the highest frequency of any of the keywords in them. Since each posting list is in
+ * descending order of frequency, this is a k-way merge of the lists: a heap holds one
+ * cursor per list, ordered by the frequency at the cursor, and the merge stops as soon as
+ * k distinct documents have come off the heap. Ties in frequency go to the keyword that
+ * comes first, and within a list to the earlier occurrence.
+ *
+ */
+final class TopKMerge {
+
+	/**
+	 * Position in the posting list of one keyword.
+	 */
+	private static final class Cursor {
+
+		/**
+		 * Position of the keyword in the query.
+		 */
+		final int term;
+
+		/**
+		 * Iterator over the keyword's posting list, at the current occurrence.
+		 */
+		final PostingIterator it;
+
+		Cursor(int term, PostingIterator it) {
+			this.term = term;
+			this.it = it;
+		}
+	}
+
+	/**
+	 * Orders cursors by descending frequency, then by position of the keyword in the query.
+	 */
+	private static final Comparator<Cursor> ORDER = new Comparator<Cursor>() {
+		public int compare(Cursor a, Cursor b) {
+			if (a.it.frequency() != b.it.frequency()) {
+				return a.it.frequency() > b.it.frequency() ? -1 : 1;
+			}
+			return a.term - b.term;
+		}
+	};
+
+	private TopKMerge() {
+	}
+
+	/**
+	 * Merges the posting lists of the keywords of a query.
+	 *
+	 * @param lists Posting list of each keyword, in query order; null for a keyword not in the index
+	 * @param k Maximum number of documents to return; none if not positive
+	 * @return IDs of at most k distinct documents, best first
+	 */
+	static int[] top(PostingList[] lists, int k) {
+		if (k <= 0) {
+			return new int[0];
+		}
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, lists.length), ORDER);
+		// no more documents can come out than there are occurrences
+		long total = 0;
+		for (int t = 0; t < lists.length; t++) {
+			if (lists[t] != null) {
+				total += lists[t].size();
+				PostingIterator it = lists[t].iterator();
+				if (it.next()) {
+					heap.add(new Cursor(t, it));
+				}
+			}
+		}
+		k = (int)Math.min(k, total);
+		int[] docs = new int[k];
+		int n = 0;
+		IntHashSet seen = new IntHashSet(k);
+		while (n < k && !heap.isEmpty()) {
+			Cursor c = heap.poll();
+			if (seen.add(c.it.doc())) {
+				docs[n++] = c.it.doc();
+			}
+			if (c.it.next()) {
+				heap.add(c);
+			}
+		}
+		return n == k ? docs : Arrays.copyOf(docs, n);
+	}
+}
@@ -0,0 +1,298 @@
+package search;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests ArchiveSource on each kind of archive it reads, built in a temp folder: GNU tar with
+ * long name entries, ustar with name prefixes, pax headers in a .tgz, zip, and a single gzip
+ * document; and on corrupt pax headers.
+ *
+ */
+public class ArchiveSourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Path longer than the 100 bytes of the tar name field.
+	 */
+	static final String LONG_PATH = "docs/" + repeat("nested/", 20) + "deep.txt";
+
+	/**
+	 * GNU tar: a long name entry names the next file, and directories are skipped.
+	 */
+	@Test
+	public void gnuTar()
+	throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		entry(tar, "docs/", '5', "", "", GNU);
+		entry(tar, "././@LongLink", 'L', LONG_PATH + "\0", "", GNU);
+		entry(tar, LONG_PATH.substring(0, 99), '0', "deep words", "", GNU);
+		entry(tar, "docs/a.txt", '0', "alpha beta", "", GNU);
+		String archive = write("gnu.tar", end(tar));
+		assertEquals(docs(archive + "!" + LONG_PATH, "deep words", archive + "!docs/a.txt", "alpha beta"),
+				read(archive));
+	}
+
+	/**
+	 * ustar: a long path is split into the prefix and name fields.
+	 */
+	@Test
+	public void ustarPrefix()
+	throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		int split = LONG_PATH.lastIndexOf('/');
+		entry(tar, LONG_PATH.substring(split + 1), '0', "prefixed", LONG_PATH.substring(0, split), USTAR);
+		entry(tar, "b.txt", 0, "old style", "", USTAR);
+		String archive = write("ustar.tar", end(tar));
+		assertEquals(docs(archive + "!" + LONG_PATH, "prefixed", archive + "!b.txt", "old style"), read(archive));
+	}
+
+	/**
+	 * pax in a .tgz: the path record of an extended header names the next file only, and
+	 * other records are passed over.
+	 */
+	@Test
+	public void paxTgz()
+	throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		entry(tar, "PaxHeaders/deep", 'x', pax("mtime=1700000000.5") + pax("path=" + LONG_PATH), "", USTAR);
+		entry(tar, "deep.txt", '0', "pax words", "", USTAR);
+		entry(tar, "c.txt", '0', "plain", "", USTAR);
+		String archive = write("pax.tgz", gzip(end(tar)));
+		assertEquals(docs(archive + "!" + LONG_PATH, "pax words", archive + "!c.txt", "plain"), read(archive));
+	}
+
+	/**
+	 * zip: every file entry is a document, directories are skipped.
+	 */
+	@Test
+	public void zip()
+	throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		zip.putNextEntry(new ZipEntry("dir/"));
+		zip.closeEntry();
+		zip.putNextEntry(new ZipEntry("dir/one.txt"));
+		zip.write(utf8("first doc"));
+		zip.closeEntry();
+		zip.putNextEntry(new ZipEntry("two.txt"));
+		zip.write(utf8("second doc"));
+		zip.closeEntry();
+		zip.close();
+		String archive = write("docs.zip", bytes.toByteArray());
+		assertEquals(docs(archive + "!dir/one.txt", "first doc", archive + "!two.txt", "second doc"), read(archive));
+	}
+
+	/**
+	 * gzip: the file holds a single document, named as the file.
+	 */
+	@Test
+	public void gzipDocument()
+	throws IOException {
+		String archive = write("single.txt.gz", gzip(utf8("one compressed document")));
+		assertEquals(docs(archive, "one compressed document"), read(archive));
+	}
+
+	/**
+	 * A pax record whose length runs past the header data is an IOException naming the archive.
+	 */
+	@Test
+	public void paxLengthPastData()
+	throws IOException {
+		assertCorruptPax("long.tar", "99 path=x\n");
+	}
+
+	/**
+	 * A pax record too short to hold its own length field is an IOException naming the archive.
+	 */
+	@Test
+	public void paxLengthTooShort()
+	throws IOException {
+		assertCorruptPax("short.tar", "2 path=x\n");
+	}
+
+	/**
+	 * A pax record with no '=' is an IOException naming the archive.
+	 */
+	@Test
+	public void paxNoEquals()
+	throws IOException {
+		assertCorruptPax("noeq.tar", "9 pathxx\n");
+	}
+
+	/**
+	 * A pax record with no length is an IOException naming the archive.
+	 */
+	@Test
+	public void paxNoLength()
+	throws IOException {
+		assertCorruptPax("nolen.tar", "path=x\n");
+	}
+
+	/**
+	 * Writes a tar with the given pax header data before a file, and checks that reading it fails.
+	 */
+	private void assertCorruptPax(String name, String paxData)
+	throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		entry(tar, "PaxHeaders/x", 'x', paxData, "", USTAR);
+		entry(tar, "x.txt", '0', "words", "", USTAR);
+		String archive = write(name, end(tar));
+		try {
+			read(archive);
+			fail("corrupt pax header read");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(archive));
+		}
+	}
+
+	/**
+	 * Magic and version fields of GNU and POSIX ustar headers.
+	 */
+	static final String GNU = "ustar  \0", USTAR = "ustar\u000000";
+
+	/**
+	 * Appends a tar entry, header and data padded to whole blocks.
+	 */
+	static void entry(ByteArrayOutputStream tar, String name, int type, String data, String prefix, String magic)
+	throws IOException {
+		byte[] bytes = data.getBytes("UTF-8");
+		byte[] h = new byte[ArchiveSource.BLOCK];
+		put(h, 0, name);
+		put(h, 100, "0000644\0");
+		put(h, 108, "0000000\0");
+		put(h, 116, "0000000\0");
+		put(h, 124, String.format("%011o\0", bytes.length));
+		put(h, 136, String.format("%011o\0", 1700000000L));
+		h[156] = (byte)type;
+		put(h, 257, magic);
+		put(h, 345, prefix);
+		// checksum of the header with the checksum field as spaces
+		put(h, 148, "        ");
+		int sum = 0;
+		for (byte b : h) {
+			sum += b & 0xff;
+		}
+		put(h, 148, String.format("%06o\0 ", sum));
+		tar.write(h);
+		tar.write(bytes);
+		tar.write(new byte[(ArchiveSource.BLOCK - bytes.length % ArchiveSource.BLOCK) % ArchiveSource.BLOCK]);
+	}
+
+	/**
+	 * Ends a tar with two zero blocks.
+	 */
+	static byte[] end(ByteArrayOutputStream tar) {
+		byte[] zeros = new byte[2*ArchiveSource.BLOCK];
+		tar.write(zeros, 0, zeros.length);
+		return tar.toByteArray();
+	}
+
+	/**
+	 * Returns a pax record, its length counting itself.
+	 */
+	static String pax(String keyValue) {
+		int len = keyValue.length() + 3;
+		while (Integer.toString(len).length() + keyValue.length() + 2 != len) {
+			len++;
+		}
+		return len + " " + keyValue + "\n";
+	}
+
+	/**
+	 * Writes a string into a header field.
+	 */
+	private static void put(byte[] h, int off, String s) {
+		byte[] b = utf8(s);
+		System.arraycopy(b, 0, h, off, b.length);
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of a string.
+	 */
+	static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns bytes gzip compressed.
+	 */
+	static byte[] gzip(byte[] data)
+	throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(bytes);
+		gz.write(data);
+		gz.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns a string repeated n times.
+	 */
+	static String repeat(String s, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes bytes to a file of the temp folder, and returns its path.
+	 */
+	private String write(String name, byte[] bytes)
+	throws IOException {
+		File f = folder.newFile(name);
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return f.getPath();
+	}
+
+	/**
+	 * Returns names and contents, alternating, as a map in order.
+	 */
+	static LinkedHashMap<String,String> docs(String... nameText) {
+		LinkedHashMap<String,String> docs = new LinkedHashMap<String,String>();
+		for (int i = 0; i < nameText.length; i += 2) {
+			docs.put(nameText[i], nameText[i+1]);
+		}
+		return docs;
+	}
+
+	/**
+	 * Reads every document of an archive, with its contents.
+	 */
+	static LinkedHashMap<String,String> read(String archive)
+	throws IOException {
+		LinkedHashMap<String,String> docs = new LinkedHashMap<String,String>();
+		DocumentSource source = DocumentSource.archive(archive);
+		try {
+			for (DocumentSource.Document doc = source.next(); doc != null; doc = source.next()) {
+				ByteBuffer b = doc.bytes.duplicate();
+				byte[] text = new byte[b.remaining()];
+				b.get(text);
+				docs.put(doc.name, new String(text, "UTF-8"));
+			}
+		} finally {
+			source.close();
+		}
+		return docs;
+	}
+}
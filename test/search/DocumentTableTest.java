@@ -0,0 +1,93 @@
+package search;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that the statistics a generation is published with do not change as the table
+ * is written afterwards, and that searches on an older generation keep reading them.
+ *
+ */
+public class DocumentTableTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Lengths, norms, count and total length of a snapshot stay as they were when it was taken,
+	 * on every page, while the next snapshot sees the changes.
+	 */
+	@Test
+	public void statsAreSnapshots() {
+		DocumentTable table = new DocumentTable();
+		int n = 3*DocumentStats.PAGE + 5;
+		for (int i = 0; i < n; i++) {
+			table.setLength(table.id("doc" + i), 10);
+		}
+		DocumentStats before = table.stats();
+		assertSame(before, table.stats());
+		table.setLength(0, 100);
+		table.setLength(2*DocumentStats.PAGE + 1, 1000);
+		table.remove("doc" + (n-1));
+		table.setLength(table.id("new"), 7);
+		DocumentStats after = table.stats();
+		assertEquals(n, before.size);
+		assertEquals(n, before.count);
+		assertEquals(10L*n, before.totalLength);
+		assertEquals(10, before.length(0));
+		assertEquals(10, before.length(2*DocumentStats.PAGE + 1));
+		assertEquals(10, before.length(n-1));
+		assertEquals(DocumentTable.encodeLength(10), (byte)before.norm(0));
+		assertEquals(n+1, after.size);
+		assertEquals(n, after.count);
+		assertEquals(10L*n + 90 + 990 - 10 + 7, after.totalLength);
+		assertEquals(100, after.length(0));
+		assertEquals(1000, after.length(2*DocumentStats.PAGE + 1));
+		assertEquals(-1, after.length(n-1));
+		assertEquals(7, after.length(n));
+		assertEquals(DocumentTable.encodeLength(100), (byte)after.norm(0));
+		assertEquals(10, after.length(DocumentStats.PAGE));
+	}
+
+	/**
+	 * A search on a generation taken before an update ranks with the lengths of that generation.
+	 */
+	@Test
+	public void searchesKeepTheirGeneration()
+	throws IOException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		String a = doc("a.txt", "apple banana");
+		String b = doc("b.txt", "apple banana cherry date elder fig");
+		engine.addDocument(a);
+		engine.addDocument(b);
+		IndexGeneration old = engine.generation.get();
+		doc("a.txt", "apple banana cherry date elder fig grape honeydew kiwi lemon");
+		engine.updateDocument(a);
+		assertEquals(2, old.stats.length(0));
+		assertEquals(10, engine.generation.get().stats.length(0));
+		PostingList[] lists = { old.postings("apple") };
+		int[] top = ScoringModel.BM25.top(lists, old.stats, 2);
+		assertEquals(Arrays.asList(a, b), Arrays.asList(old.documents.name(top[0]), old.documents.name(top[1])));
+		assertEquals(Arrays.asList(b, a), engine.topK(Arrays.asList("apple"), 2, ScoringModel.BM25));
+	}
+
+	/**
+	 * Writes a document to the temp folder, and returns its path.
+	 */
+	private String doc(String name, String text)
+	throws IOException {
+		File f = new File(folder.getRoot(), name);
+		Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		return f.getPath();
+	}
+}
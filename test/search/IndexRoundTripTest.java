@@ -0,0 +1,144 @@
+package search;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests saving an index and opening it again: removed documents stay removed, a document
+ * updated to have no keywords is removed, and a document removed after the index is opened
+ * is taken out of its own lists, found through the forward index of the file.
+ *
+ */
+public class IndexRoundTripTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A removed document is not counted or found after a save and reopen, and can be added again.
+	 */
+	@Test
+	public void removedStaysRemoved()
+	throws IOException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		String a = doc("a.txt", "apple banana apple");
+		String b = doc("b.txt", "banana cherry");
+		String c = doc("c.txt", "cherry apple");
+		engine.addDocument(a);
+		engine.addDocument(b);
+		engine.addDocument(c);
+		assertTrue(engine.removeDocument(b));
+		LittleSearchEngine opened = reopen(engine);
+		assertEquals(2, opened.generation.get().stats.count);
+		assertEquals(-1, opened.generation.get().documents.find(b));
+		assertEquals(Arrays.asList(a), opened.topK(Arrays.asList("banana"), 5));
+		assertEquals(Arrays.asList(c), opened.topK(Arrays.asList("cherry"), 5));
+		assertFalse(opened.removeDocument(b));
+		opened.addDocument(b);
+		assertEquals(3, opened.generation.get().stats.count);
+		assertEquals(new HashSet<String>(Arrays.asList(a, b)),
+				new HashSet<String>(opened.topK(Arrays.asList("banana"), 5)));
+	}
+
+	/**
+	 * A document updated to have no keywords is removed, and stays removed after a save and reopen.
+	 */
+	@Test
+	public void updateWithoutKeywordsRemoves()
+	throws IOException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		String a = doc("a.txt", "apple banana");
+		String b = doc("b.txt", "banana");
+		engine.addDocument(a);
+		engine.addDocument(b);
+		write(a, "1234 5678");
+		engine.updateDocument(a);
+		assertEquals(-1, engine.generation.get().documents.find(a));
+		assertEquals(1, engine.generation.get().stats.count);
+		assertNull(engine.postings("apple"));
+		LittleSearchEngine opened = reopen(engine);
+		assertEquals(1, opened.generation.get().stats.count);
+		assertEquals(Arrays.asList(b), opened.topK(Arrays.asList("banana"), 5));
+	}
+
+	/**
+	 * The file holds each document's keywords, and a document removed or updated after the
+	 * index is opened leaves no occurrences behind.
+	 */
+	@Test
+	public void removeAfterOpen()
+	throws IOException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		String a = doc("a.txt", "apple banana apple");
+		String b = doc("b.txt", "banana cherry");
+		String c = doc("c.txt", "cherry date");
+		engine.addDocument(a);
+		engine.addDocument(b);
+		engine.addDocument(c);
+		String index = new File(folder.getRoot(), "first.idx").getPath();
+		engine.saveIndex(index);
+		IndexFile file = IndexFile.open(index);
+		int id = engine.generation.get().documents.find(b);
+		assertEquals(Arrays.asList("banana", "cherry"), Arrays.asList(file.keywords(id)));
+		assertEquals(0, file.keywords(file.documents.length + 10).length);
+		LittleSearchEngine opened = new LittleSearchEngine();
+		opened.openIndex(index);
+		assertTrue(opened.removeDocument(b));
+		assertEquals(Arrays.asList(a), opened.topK(Arrays.asList("banana"), 5));
+		assertEquals(Arrays.asList(c), opened.topK(Arrays.asList("cherry"), 5));
+		write(c, "elder");
+		opened.updateDocument(c);
+		assertNull(opened.postings("cherry"));
+		assertNull(opened.postings("date"));
+		assertEquals(Arrays.asList(c), opened.topK(Arrays.asList("elder"), 5));
+		// a second round trip keeps all of it
+		LittleSearchEngine again = reopen(opened);
+		assertEquals(2, again.generation.get().stats.count);
+		assertNull(again.postings("cherry"));
+		assertEquals(Arrays.asList(a), again.topK(Arrays.asList("apple"), 5));
+		assertEquals(Arrays.asList(c), again.topK(Arrays.asList("elder"), 5));
+		assertTrue(again.removeDocument(a));
+		assertNull(again.postings("apple"));
+		assertNull(again.postings("banana"));
+	}
+
+	/**
+	 * Saves an engine's index to a new file and opens it in a new engine.
+	 */
+	private LittleSearchEngine reopen(LittleSearchEngine engine)
+	throws IOException {
+		File index = folder.newFile();
+		engine.saveIndex(index.getPath());
+		LittleSearchEngine opened = new LittleSearchEngine();
+		opened.openIndex(index.getPath());
+		return opened;
+	}
+
+	/**
+	 * Writes a document to the temp folder, and returns its path.
+	 */
+	private String doc(String name, String text)
+	throws IOException {
+		String path = new File(folder.getRoot(), name).getPath();
+		write(path, text);
+		return path;
+	}
+
+	/**
+	 * Replaces the contents of a file.
+	 */
+	private static void write(String path, String text)
+	throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(path), "UTF-8");
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+}
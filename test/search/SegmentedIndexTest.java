@@ -0,0 +1,132 @@
+package search;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests SegmentedIndex against LittleSearchEngine on the same documents: after flushes and
+ * merges, after closing and opening the segments directory again, and with documents added
+ * after it is opened; and that a failed background flush is reported.
+ *
+ */
+public class SegmentedIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Words documents are made of; each document takes a few, with repeats.
+	 */
+	static final String[] WORDS = {
+		"apple", "banana", "cherry", "date", "elder", "fig", "grape", "honeydew", "kiwi", "lemon",
+		"mango", "nectarine", "orange", "papaya", "quince", "raspberry", "strawberry", "tangerine"
+	};
+
+	/**
+	 * Segments opened again hold the same documents, give the same results, and go on taking new documents.
+	 */
+	@Test
+	public void reopen()
+	throws IOException {
+		File noise = folder.newFile("noise.txt");
+		String dir = new File(folder.getRoot(), "segments").getPath();
+		List<String> docs = docs(2*SegmentedIndex.FLUSH_DOCS + 300, 1);
+		SegmentedIndex index = new SegmentedIndex(dir, noise.getPath());
+		for (String doc : docs) {
+			index.addDocument(doc);
+		}
+		index.close();
+		LittleSearchEngine engine = new LittleSearchEngine();
+		for (String doc : docs) {
+			engine.addDocument(doc);
+		}
+		index = new SegmentedIndex(dir, noise.getPath());
+		assertTrue(index.segmentCount() > 0);
+		assertEquals(docs.size(), index.documents.size());
+		assertSameResults(engine, index);
+		try {
+			index.addDocument(docs.get(5));
+			fail("document added twice");
+		} catch (IllegalArgumentException e) {
+			// already indexed before the reopen
+		}
+		List<String> more = docs(SegmentedIndex.FLUSH_DOCS + 10, 2);
+		for (String doc : more) {
+			index.addDocument(doc);
+			engine.addDocument(doc);
+		}
+		assertSameResults(engine, index);
+		index.close();
+		index = new SegmentedIndex(dir, noise.getPath());
+		assertEquals(docs.size() + more.size(), index.documents.size());
+		assertSameResults(engine, index);
+		index.close();
+	}
+
+	/**
+	 * A flush that cannot write its segment file fails the next flush, and close.
+	 */
+	@Test
+	public void backgroundFailure()
+	throws IOException {
+		File noise = folder.newFile("noise.txt");
+		File dir = new File(folder.getRoot(), "segments");
+		SegmentedIndex index = new SegmentedIndex(dir.getPath(), noise.getPath());
+		// the first segment file cannot be created where a directory is
+		assertTrue(new File(dir, "segment-0.idx/taken").mkdirs());
+		index.addDocument(docs(1, 3).get(0));
+		try {
+			index.flush();
+			fail("failed flush not reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("segment-0.idx"));
+		}
+		try {
+			index.close();
+			fail("failed flush not reported on close");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("segment-0.idx"));
+		}
+	}
+
+	/**
+	 * Checks that searches for single words and pairs give the same documents in the same order.
+	 */
+	private static void assertSameResults(LittleSearchEngine engine, SegmentedIndex index) {
+		for (int i = 0; i < WORDS.length; i++) {
+			List<String> one = Arrays.asList(WORDS[i]);
+			assertEquals(engine.topK(one, 20), index.topK(one, 20));
+			List<String> two = Arrays.asList(WORDS[i], WORDS[(i*7 + 3) % WORDS.length]);
+			assertEquals(engine.topK(two, 20), index.topK(two, 20));
+		}
+	}
+
+	/**
+	 * Writes documents of random words in the temp folder, and returns their paths.
+	 */
+	private List<String> docs(int n, int seed)
+	throws IOException {
+		Random r = new Random(seed);
+		File sub = folder.newFolder("docs" + seed);
+		ArrayList<String> paths = new ArrayList<String>(n);
+		for (int d = 0; d < n; d++) {
+			File f = new File(sub, "doc" + d + ".txt");
+			Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+			try {
+				for (int w = 2 + r.nextInt(10); w > 0; w--) {
+					out.write(WORDS[r.nextInt(WORDS.length)]);
+					out.write(' ');
+				}
+			} finally {
+				out.close();
+			}
+			paths.add(f.getPath());
+		}
+		return paths;
+	}
+}